@@ -0,0 +1,112 @@
+package Matrix;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels implemented with the Java Vector API. Compiled separately from
+ * the rest of the library (see build.xml) and loaded by Kernels only when
+ * the jdk.incubator.vector module is available.
+ */
+final class VectorKernels extends Kernels {
+
+    //256 bit vectors. On AVX-512 machines the wider preferred species
+    //was measured slower for these memory bound loops
+    private static final VectorSpecies<Double> S
+            = DoubleVector.SPECIES_PREFERRED.vectorBitSize() >= 256
+            ? DoubleVector.SPECIES_256 : DoubleVector.SPECIES_PREFERRED;
+    //The micro kernel works on rows of 4 doubles
+    private static final VectorSpecies<Double> S4 = DoubleVector.SPECIES_256;
+    private static final boolean WIDE = S.length() >= 4;
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void add(double[] a, int ao, double alpha, double[] b, int bo, double[] c, int co, int n) {
+        int k = 0;
+        for (int bound = S.loopBound(n); k < bound; k += S.length()) {
+            DoubleVector va = DoubleVector.fromArray(S, a, ao + k);
+            DoubleVector vb = DoubleVector.fromArray(S, b, bo + k);
+            va.add(vb.mul(alpha)).intoArray(c, co + k);
+        }
+        for (; k < n; k++)
+            c[co + k] = a[ao + k] + alpha * b[bo + k];
+    }
+
+    @Override
+    void mul(double[] a, int ao, double[] b, int bo, double[] c, int co, int n) {
+        int k = 0;
+        for (int bound = S.loopBound(n); k < bound; k += S.length()) {
+            DoubleVector va = DoubleVector.fromArray(S, a, ao + k);
+            DoubleVector vb = DoubleVector.fromArray(S, b, bo + k);
+            va.mul(vb).intoArray(c, co + k);
+        }
+        for (; k < n; k++)
+            c[co + k] = a[ao + k] * b[bo + k];
+    }
+
+    @Override
+    void scale(double[] a, int ao, double factor, int n) {
+        int k = 0;
+        for (int bound = S.loopBound(n); k < bound; k += S.length()) {
+            DoubleVector.fromArray(S, a, ao + k).mul(factor).intoArray(a, ao + k);
+        }
+        for (; k < n; k++)
+            a[ao + k] *= factor;
+    }
+
+    @Override
+    double sum(double[] a, int ao, int n) {
+        DoubleVector acc = DoubleVector.zero(S);
+        int k = 0;
+        for (int bound = S.loopBound(n); k < bound; k += S.length()) {
+            acc = acc.add(DoubleVector.fromArray(S, a, ao + k));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++)
+            sum += a[ao + k];
+        return sum;
+    }
+
+    @Override
+    double dot(double[] a, int ao, double[] b, int bo, int n) {
+        DoubleVector acc = DoubleVector.zero(S);
+        int k = 0;
+        for (int bound = S.loopBound(n); k < bound; k += S.length()) {
+            DoubleVector va = DoubleVector.fromArray(S, a, ao + k);
+            DoubleVector vb = DoubleVector.fromArray(S, b, bo + k);
+            acc = acc.add(va.mul(vb));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++)
+            sum += a[ao + k] * b[bo + k];
+        return sum;
+    }
+
+    @Override
+    void micro(int kc, double[] ap, int pa, double[] bp, int pb, double[] tile) {
+        if (!WIDE) {
+            super.micro(kc, ap, pa, bp, pb, tile);
+            return;
+        }
+        DoubleVector c0 = DoubleVector.zero(S4);
+        DoubleVector c1 = DoubleVector.zero(S4);
+        DoubleVector c2 = DoubleVector.zero(S4);
+        DoubleVector c3 = DoubleVector.zero(S4);
+        for (int p = 0; p < kc; p++, pa += 4, pb += 4) {
+            DoubleVector b = DoubleVector.fromArray(S4, bp, pb);
+            c0 = c0.add(b.mul(ap[pa]));
+            c1 = c1.add(b.mul(ap[pa + 1]));
+            c2 = c2.add(b.mul(ap[pa + 2]));
+            c3 = c3.add(b.mul(ap[pa + 3]));
+        }
+        c0.intoArray(tile, 0);
+        c1.intoArray(tile, 4);
+        c2.intoArray(tile, 8);
+        c3.intoArray(tile, 12);
+    }
+}
@@ -0,0 +1,173 @@
+package Matrix;
+
+/**
+ * Cholesky decomposition A = L*L^T of a symmetric positive definite matrix.
+ *
+ * The factorization takes about half the work of an LU decomposition and
+ * needs no pivoting. It is blocked: a 64-column panel is factored and the
+ * lower triangle of the rest of the matrix is updated with the blocked
+ * multiplication. The constructor fails as soon as A turns out not to be
+ * symmetric or not positive definite.
+ *
+ * The factor can be updated in O(n^2) when A changes by x*x^T (update) or
+ * -x*x^T (downdate) instead of being computed again.
+ */
+final public class CholeskyDecomposition {
+    private static final int BLOCK = 64; // columns per panel
+
+    private final int n;
+    private double[] l; // L in the lower triangle, row-major
+
+    // factor the symmetric positive definite matrix A, A is not modified
+    public CholeskyDecomposition(Matrix A) {
+        if (A.getRows() != A.getCols()) throw new RuntimeException("Illegal matrix dimensions.");
+        n = A.getRows();
+        l = new Matrix(A).data;
+        for (int i = 0; i < n; i++) {
+            double aii = Math.abs(l[i * n + i]);
+            for (int j = 0; j < i; j++) {
+                double tol = 1e-10 * Math.sqrt(aii * Math.abs(l[j * n + j]));
+                if (!(Math.abs(l[i * n + j] - l[j * n + i]) <= tol))
+                    throw new RuntimeException("Matrix is not symmetric positive definite.");
+            }
+        }
+
+        for (int k = 0; k < n; k += BLOCK) {
+            int kb = Math.min(BLOCK, n - k);
+            int k1 = k + kb;
+            //Factor the rows of the panel, the diagonal block first
+            for (int i = k; i < n; i++) {
+                int ri = i * n;
+                for (int j = k; j < Math.min(i + 1, k1); j++) {
+                    int rj = j * n;
+                    double s = l[ri + j];
+                    for (int p = k; p < j; p++)
+                        s -= l[ri + p] * l[rj + p];
+                    if (i == j) {
+                        if (!(s > 0)) throw new RuntimeException("Matrix is not symmetric positive definite.");
+                        l[ri + i] = Math.sqrt(s);
+                    } else {
+                        l[ri + j] = s / l[rj + j];
+                    }
+                }
+            }
+            //A22 = A22 - L21*L21^T, lower triangle by blocks of rows
+            for (int i0 = k1; i0 < n; i0 += BLOCK) {
+                int i1 = Math.min(n, i0 + BLOCK);
+                Gemm.gemm(i1 - i0, i1 - k1, kb, -1.0,
+                        l, i0 * n + k, n, 1,
+                        l, k1 * n + k, 1, n,
+                        1.0, l, i0 * n + k1, n, 1);
+            }
+        }
+        //Clear the upper triangle
+        for (int i = 0; i < n; i++)
+            for (int j = i + 1; j < n; j++)
+                l[i * n + j] = 0;
+    }
+
+    // return the lower triangular factor L
+    public Matrix getL() {
+        Matrix L = new Matrix(n, n);
+        System.arraycopy(l, 0, L.data, 0, l.length);
+        return L;
+    }
+
+    // return the determinant of A
+    public double determinant() {
+        double det = 1;
+        for (int i = 0; i < n; i++)
+            det *= l[i * n + i] * l[i * n + i];
+        return det;
+    }
+
+    /**
+     * Solves A*X = B for all the columns of B by forward substitution with
+     * L and back substitution with L^T.
+     *
+     * @param B right hand sides, n rows
+     * @return solution X of the size of B
+     */
+    public Matrix solve(Matrix B) {
+        if (B.getRows() != n) throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix X = new Matrix(B);
+        int r = X.N;
+        double[] x = X.data;
+
+        // L*Y = B
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < i; k++) {
+                double m = l[i * n + k];
+                for (int c = 0, a = i * r, b = k * r; c < r; c++, a++, b++)
+                    x[a] -= m * x[b];
+            }
+            double d = l[i * n + i];
+            for (int c = i * r; c < (i + 1) * r; c++)
+                x[c] /= d;
+        }
+
+        // L^T*X = Y
+        for (int i = n - 1; i >= 0; i--) {
+            double d = l[i * n + i];
+            for (int c = i * r; c < (i + 1) * r; c++)
+                x[c] /= d;
+            for (int k = 0; k < i; k++) {
+                double m = l[i * n + k];
+                for (int c = 0, a = k * r, b = i * r; c < r; c++, a++, b++)
+                    x[a] -= m * x[b];
+            }
+        }
+        return X;
+    }
+
+    // return A^-1
+    public Matrix inverse() {
+        return solve(Matrix.identity(n));
+    }
+
+    /**
+     * Updates the factor to the one of A + X*X^T, one rank one update per
+     * column of X.
+     *
+     * @param X n rows
+     */
+    public void update(Matrix X) {
+        rankUpdate(X, 1);
+    }
+
+    /**
+     * Updates the factor to the one of A - X*X^T, one rank one downdate per
+     * column of X. Fails, leaving the factor unchanged, if the result is not
+     * positive definite.
+     *
+     * @param X n rows
+     */
+    public void downdate(Matrix X) {
+        rankUpdate(X, -1);
+    }
+
+    // rotate x into L column by column, sign is 1 to add x*x^T, -1 to remove it
+    private void rankUpdate(Matrix X, int sign) {
+        if (X.getRows() != n) throw new RuntimeException("Illegal matrix dimensions.");
+        double[] u = l.clone();
+        double[] x = new double[n];
+        for (int col = 1; col <= X.getCols(); col++) {
+            X.column(col).copyTo(x, 0);
+            for (int k = 0; k < n; k++) {
+                double lkk = u[k * n + k];
+                double r2 = lkk * lkk + sign * x[k] * x[k];
+                if (!(r2 > 0)) throw new RuntimeException("Matrix is not symmetric positive definite.");
+                double r = Math.sqrt(r2);
+                double c = r / lkk;
+                double s = x[k] / lkk;
+                u[k * n + k] = r;
+                for (int i = k + 1; i < n; i++) {
+                    int ik = i * n + k;
+                    u[ik] = (u[ik] + sign * s * x[i]) / c;
+                    x[i] = c * x[i] - s * u[ik];
+                }
+            }
+        }
+        l = u;
+    }
+}
@@ -0,0 +1,195 @@
+package Matrix;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Conjugate gradient solver for A*x = b with A symmetric positive
+ * definite. Every iteration needs one product of A with a vector, so A can
+ * be dense, sparse or only given as a function (e.g. v -> X^T*(X*v) +
+ * lambda*v for ridge regression, without forming X^T*X).
+ *
+ * With the Jacobi preconditioner the residual is scaled by the inverse of
+ * the diagonal of A at every iteration, which helps when the rows of A
+ * have very different scales. It is on by default when the diagonal is
+ * known, i.e. for Matrix and SparseMatrix operators.
+ *
+ * Iteration stops when norm(b - A*x) &lt;= tolerance * norm(b) or after the
+ * maximum number of iterations. The statistics of the last solve are
+ * available from the getters.
+ */
+final public class ConjugateGradient {
+    private final int n;
+    private UnaryOperator<Matrix> op;       // v -> A*v
+    private Matrix diagonal;                // diagonal of A, null if unknown
+    private boolean jacobi;
+    private double tolerance = 1e-10;
+    private int maxIterations;
+
+    // statistics of the last solve
+    private int iterations;
+    private double residual;
+    private boolean converged;
+    private double[] history = new double[0];
+
+    // solver for the symmetric positive definite matrix A
+    public ConjugateGradient(Matrix A) {
+        this(A.getRows());
+        if (A.getRows() != A.getCols()) throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix q = new Matrix(n, 1);
+        diagonal = new Matrix(n, 1);
+        for (int i = 0; i < n; i++)
+            diagonal.data[i] = A.get(A.index(i, i));
+        jacobi = true;
+        op = v -> A.timesInto(v, q);
+    }
+
+    // solver for the symmetric positive definite sparse matrix A
+    public ConjugateGradient(SparseMatrix A) {
+        this(A.getRows());
+        if (A.getRows() != A.getCols()) throw new RuntimeException("Illegal matrix dimensions.");
+        diagonal = new Matrix(n, 1);
+        for (int i = 0; i < n; i++)
+            diagonal.data[i] = A.getValue(i + 1, i + 1);
+        jacobi = true;
+        op = A::times;
+    }
+
+    /**
+     * Matrix-free solver. The Jacobi preconditioner is only used once the
+     * diagonal is given with setPreconditioner.
+     *
+     * @param op returns A*v for a n-by-1 vector v
+     * @param n size of A
+     */
+    public ConjugateGradient(UnaryOperator<Matrix> op, int n) {
+        this(n);
+        this.op = op;
+    }
+
+    private ConjugateGradient(int n) {
+        if (n < 1) throw new RuntimeException("Illegal matrix dimensions.");
+        this.n = n;
+        this.maxIterations = Math.max(n, 1000);
+    }
+
+    // stop when the residual norm is below tolerance times the norm of b
+    public void setTolerance(double tolerance) {
+        if (!(tolerance > 0)) throw new RuntimeException("Illegal tolerance.");
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    // maximum number of iterations, default is max(n, 1000)
+    public void setMaxIterations(int maxIterations) {
+        if (maxIterations < 0) throw new RuntimeException("Illegal number of iterations.");
+        this.maxIterations = maxIterations;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    // use the Jacobi preconditioner with the given diagonal of A
+    public void setPreconditioner(Matrix diagonal) {
+        if (diagonal.getRows() != n || diagonal.getCols() != 1)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        this.diagonal = new Matrix(diagonal);
+        this.jacobi = true;
+    }
+
+    // turn the Jacobi preconditioner on or off, it needs a known diagonal
+    public void setJacobi(boolean jacobi) {
+        if (jacobi && diagonal == null) throw new RuntimeException("Diagonal of the matrix is unknown.");
+        this.jacobi = jacobi;
+    }
+
+    public boolean isJacobi() {
+        return jacobi;
+    }
+
+    // solve A*x = b starting from x = 0
+    public Matrix solve(Matrix b) {
+        return solve(b, new Matrix(n, 1));
+    }
+
+    /**
+     * Solves A*x = b starting from x0, e.g. the solution of a nearby
+     * problem.
+     *
+     * @param b right hand side, n-by-1
+     * @param x0 initial guess, n-by-1, not modified
+     * @return solution
+     */
+    public Matrix solve(Matrix b, Matrix x0) {
+        if (b.getRows() != n || b.getCols() != 1 || x0.getRows() != n || x0.getCols() != 1)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix inv = null;
+        if (jacobi) {
+            inv = new Matrix(n, 1);
+            for (int i = 0; i < n; i++) {
+                double d = diagonal.data[i];
+                if (!(d > 0)) throw new RuntimeException("Matrix is not positive definite.");
+                inv.data[i] = 1 / d;
+            }
+        }
+
+        Matrix x = new Matrix(x0);
+        Matrix r = new Matrix(b).minusInPlace(op.apply(x));
+        Matrix z = inv != null ? new Matrix(r).times_hadamardInPlace(inv) : r;
+        Matrix p = new Matrix(z);
+        double rz = r.scalarMult(z);
+        double bnorm = b.getNorm();
+        if (bnorm == 0) bnorm = 1;
+
+        double[] hist = new double[Math.min(maxIterations, 1 << 16) + 1];
+        int k = 0;
+        double res = r.getNorm() / bnorm;
+        hist[0] = res;
+        while (res > tolerance && k < maxIterations) {
+            Matrix q = op.apply(p);
+            double pq = p.scalarMult(q);
+            if (!(pq > 0)) throw new RuntimeException("Matrix is not positive definite.");
+            double alpha = rz / pq;
+            x.axpy(alpha, p);
+            r.axpy(-alpha, q);
+            if (inv != null) z.copyFrom(r).times_hadamardInPlace(inv);
+            double rzNew = r.scalarMult(z);
+            p.scale(rzNew / rz).plusInPlace(z);
+            rz = rzNew;
+            k++;
+            res = r.getNorm() / bnorm;
+            if (k >= hist.length) hist = Arrays.copyOf(hist, hist.length * 2);
+            hist[k] = res;
+        }
+
+        iterations = k;
+        residual = res;
+        converged = res <= tolerance;
+        history = Arrays.copyOf(hist, k + 1);
+        return x;
+    }
+
+    // iterations done by the last solve
+    public int getIterations() {
+        return iterations;
+    }
+
+    // norm(b - A*x) / norm(b) at the end of the last solve
+    public double getResidual() {
+        return residual;
+    }
+
+    // true if the last solve reached the tolerance
+    public boolean hasConverged() {
+        return converged;
+    }
+
+    // relative residual before the first and after every iteration
+    public double[] getResidualHistory() {
+        return history.clone();
+    }
+}
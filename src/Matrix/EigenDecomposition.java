@@ -0,0 +1,253 @@
+package Matrix;
+
+/**
+ * Eigenvalues and eigenvectors of a symmetric matrix, A = V*D*V^T.
+ *
+ * A is first reduced to tridiagonal form by Householder reflections, then
+ * the tridiagonal matrix is diagonalized by the implicit QL algorithm with
+ * Wilkinson shifts (the tred2 and tql2 routines of EISPACK). The cost is
+ * about 9n^3 flops, independent of how close the eigenvalues are.
+ *
+ * Only the lower triangle of A is read. Eigenvalues are sorted from the
+ * largest to the smallest and column k of V is the unit eigenvector of
+ * the k-th eigenvalue.
+ */
+final public class EigenDecomposition {
+    private final int n;
+    private final double[] d;  // eigenvalues
+    private final double[] e;  // off diagonal of the tridiagonal form
+    // Transpose of V: row k is the k-th eigenvector, so the column
+    // rotations of the algorithms run along contiguous rows
+    private final double[] w;
+
+    // compute the eigen decomposition of the symmetric matrix A
+    public EigenDecomposition(Matrix A) {
+        if (A.getRows() != A.getCols()) throw new RuntimeException("Illegal matrix dimensions.");
+        n = A.getRows();
+        d = new double[n];
+        e = new double[n];
+        w = new double[n * n];
+        //A is symmetric, its lower triangle read by rows is V^T
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j <= i; j++)
+                w[j * n + i] = A.get(A.index(i, j));
+        tridiagonalize();
+        diagonalize();
+        sort();
+    }
+
+    // Householder reduction to tridiagonal form (tred2)
+    private void tridiagonalize() {
+        for (int j = 0; j < n; j++)
+            d[j] = w[j * n + n - 1];
+
+        for (int i = n - 1; i > 0; i--) {
+            //Scale to avoid under/overflow
+            double scale = 0;
+            double h = 0;
+            for (int k = 0; k < i; k++)
+                scale += Math.abs(d[k]);
+            if (scale == 0) {
+                e[i] = d[i - 1];
+                for (int j = 0; j < i; j++) {
+                    d[j] = w[j * n + i - 1];
+                    w[j * n + i] = 0;
+                    w[i * n + j] = 0;
+                }
+            } else {
+                //Generate Householder vector
+                for (int k = 0; k < i; k++) {
+                    d[k] /= scale;
+                    h += d[k] * d[k];
+                }
+                double f = d[i - 1];
+                double g = Math.sqrt(h);
+                if (f > 0) g = -g;
+                e[i] = scale * g;
+                h = h - f * g;
+                d[i - 1] = f - g;
+                for (int j = 0; j < i; j++)
+                    e[j] = 0;
+
+                //Apply similarity transformation to remaining columns
+                for (int j = 0; j < i; j++) {
+                    f = d[j];
+                    w[i * n + j] = f;
+                    int wj = j * n;
+                    g = e[j] + w[wj + j] * f;
+                    for (int k = j + 1; k <= i - 1; k++) {
+                        g += w[wj + k] * d[k];
+                        e[k] += w[wj + k] * f;
+                    }
+                    e[j] = g;
+                }
+                f = 0;
+                for (int j = 0; j < i; j++) {
+                    e[j] /= h;
+                    f += e[j] * d[j];
+                }
+                double hh = f / (h + h);
+                for (int j = 0; j < i; j++)
+                    e[j] -= hh * d[j];
+                for (int j = 0; j < i; j++) {
+                    f = d[j];
+                    g = e[j];
+                    int wj = j * n;
+                    for (int k = j; k <= i - 1; k++)
+                        w[wj + k] -= (f * e[k] + g * d[k]);
+                    d[j] = w[wj + i - 1];
+                    w[wj + i] = 0;
+                }
+            }
+            d[i] = h;
+        }
+
+        //Accumulate transformations
+        for (int i = 0; i < n - 1; i++) {
+            w[i * n + n - 1] = w[i * n + i];
+            w[i * n + i] = 1;
+            double h = d[i + 1];
+            int wi1 = (i + 1) * n;
+            if (h != 0) {
+                for (int k = 0; k <= i; k++)
+                    d[k] = w[wi1 + k] / h;
+                for (int j = 0; j <= i; j++) {
+                    int wj = j * n;
+                    double g = 0;
+                    for (int k = 0; k <= i; k++)
+                        g += w[wi1 + k] * w[wj + k];
+                    for (int k = 0; k <= i; k++)
+                        w[wj + k] -= g * d[k];
+                }
+            }
+            for (int k = 0; k <= i; k++)
+                w[wi1 + k] = 0;
+        }
+        for (int j = 0; j < n; j++) {
+            d[j] = w[j * n + n - 1];
+            w[j * n + n - 1] = 0;
+        }
+        if (n > 0) w[n * n - 1] = 1;
+        e[0] = 0;
+    }
+
+    // Implicit QL iterations on the tridiagonal matrix (tql2)
+    private void diagonalize() {
+        for (int i = 1; i < n; i++)
+            e[i - 1] = e[i];
+        if (n > 0) e[n - 1] = 0;
+
+        double f = 0;
+        double tst1 = 0;
+        double eps = Math.ulp(1.0);
+        for (int l = 0; l < n; l++) {
+            //Find small subdiagonal element
+            tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+            int m = l;
+            while (m < n - 1 && Math.abs(e[m]) > eps * tst1)
+                m++;
+
+            //If m == l, d[l] is already an eigenvalue, otherwise iterate
+            int iter = 0;
+            while (m > l) {
+                if (++iter > 30 * n) throw new RuntimeException("Eigenvalues did not converge.");
+
+                //Compute implicit shift
+                double g = d[l];
+                double p = (d[l + 1] - g) / (2 * e[l]);
+                double r = Math.hypot(p, 1);
+                if (p < 0) r = -r;
+                d[l] = e[l] / (p + r);
+                d[l + 1] = e[l] * (p + r);
+                double dl1 = d[l + 1];
+                double h = g - d[l];
+                for (int i = l + 2; i < n; i++)
+                    d[i] -= h;
+                f += h;
+
+                //Implicit QL transformation
+                p = d[m];
+                double c = 1, c2 = c, c3 = c;
+                double el1 = e[l + 1];
+                double s = 0, s2 = 0;
+                for (int i = m - 1; i >= l; i--) {
+                    c3 = c2;
+                    c2 = c;
+                    s2 = s;
+                    g = c * e[i];
+                    h = c * p;
+                    r = Math.hypot(p, e[i]);
+                    e[i + 1] = s * r;
+                    s = e[i] / r;
+                    c = p / r;
+                    p = c * d[i] - s * g;
+                    d[i + 1] = h + s * (c * g + s * d[i]);
+
+                    //Rotate eigenvectors i and i+1
+                    int wi = i * n;
+                    int wi1 = wi + n;
+                    for (int k = 0; k < n; k++) {
+                        h = w[wi1 + k];
+                        w[wi1 + k] = s * w[wi + k] + c * h;
+                        w[wi + k] = c * w[wi + k] - s * h;
+                    }
+                }
+                p = -s * s2 * c3 * el1 * e[l] / dl1;
+                e[l] = s * p;
+                d[l] = c * p;
+
+                //Check for convergence
+                if (Math.abs(e[l]) <= eps * tst1) break;
+            }
+            d[l] = d[l] + f;
+            e[l] = 0;
+        }
+    }
+
+    // sort eigenvalues from the largest down, with their eigenvectors
+    private void sort() {
+        double[] tmp = new double[n];
+        for (int i = 0; i < n - 1; i++) {
+            int k = i;
+            for (int j = i + 1; j < n; j++)
+                if (d[j] > d[k]) k = j;
+            if (k != i) {
+                double p = d[k];
+                d[k] = d[i];
+                d[i] = p;
+                System.arraycopy(w, i * n, tmp, 0, n);
+                System.arraycopy(w, k * n, w, i * n, n);
+                System.arraycopy(tmp, 0, w, k * n, n);
+            }
+        }
+    }
+
+    // eigenvalues from the largest to the smallest
+    public double[] getEigenvalues() {
+        return d.clone();
+    }
+
+    // diagonal matrix of the eigenvalues
+    public Matrix getD() {
+        Matrix D = new Matrix(n, n);
+        for (int i = 0; i < n; i++)
+            D.data[i * n + i] = d[i];
+        return D;
+    }
+
+    // matrix with the eigenvectors in its columns
+    public Matrix getV() {
+        Matrix V = new Matrix(n, n);
+        for (int i = 0; i < n; i++)
+            for (int k = 0; k < n; k++)
+                V.data[i * n + k] = w[k * n + i];
+        return V;
+    }
+
+    // eigenvector of the k-th largest eigenvalue (1 based) as a column
+    public Matrix getEigenvector(int k) {
+        Matrix v = new Matrix(n, 1);
+        System.arraycopy(w, (k - 1) * n, v.data, 0, n);
+        return v;
+    }
+}
@@ -0,0 +1,320 @@
+package Matrix;
+
+import java.io.Serializable;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Single precision dense matrix. Elements are kept in one row-major float
+ * array, so it takes half the memory of a Matrix and twice as many values
+ * fit in each cache line. Operations mixing a FloatMatrix with Matrix
+ * vectors accumulate in double and are used to hold the weights of a
+ * network layer in single precision.
+ */
+final public class FloatMatrix implements Serializable {
+    private final int M;         // number of rows
+    private final int N;         // number of columns
+    private final float[] data;  // row-major storage
+
+    private static final long serialVersionUID = 1L;
+
+    // create M-by-N matrix of 0's
+    public FloatMatrix(int M, int N) {
+        this.M = M;
+        this.N = N;
+        this.data = new float[M * N];
+    }
+
+    // create a single precision copy of A, values are rounded to float
+    public FloatMatrix(Matrix A) {
+        this(A.M, A.N);
+        for (int i = 0, d = 0; i < M; i++) {
+            int a = A.offset + i * A.rowStride;
+            for (int j = 0; j < N; j++, a += A.colStride)
+                data[d++] = (float) A.get(a);
+        }
+    }
+
+    // copy constructor
+    public FloatMatrix(FloatMatrix A) {
+        this(A.M, A.N);
+        System.arraycopy(A.data, 0, data, 0, data.length);
+    }
+
+    // return a double precision copy of this matrix
+    public Matrix toMatrix() {
+        Matrix A = new Matrix(M, N);
+        for (int k = 0; k < data.length; k++)
+            A.data[k] = data[k];
+        return A;
+    }
+
+    // write the values of this matrix into dest, no new matrix is created
+    public Matrix toMatrix(Matrix dest) {
+        if (dest.M != M || dest.N != N) throw new RuntimeException("Illegal matrix dimensions.");
+        if (dest.isContiguous()) {
+            for (int k = 0; k < data.length; k++)
+                dest.data[dest.offset + k] = data[k];
+            return dest;
+        }
+        for (int i = 0, k = 0; i < M; i++) {
+            int d = dest.offset + i * dest.rowStride;
+            for (int j = 0; j < N; j++, k++, d += dest.colStride)
+                dest.set(d, data[k]);
+        }
+        return dest;
+    }
+
+    public int getRows() {
+        return M;
+    }
+
+    public int getCols() {
+        return N;
+    }
+
+    public double getValue(int i, int j) {
+        return data[(i - 1) * N + (j - 1)];
+    }
+
+    public void setValue(int i, int j, double x) {
+        data[(i - 1) * N + (j - 1)] = (float) x;
+    }
+
+    // create and return the transpose of the invoking matrix
+    public FloatMatrix transpose() {
+        FloatMatrix A = new FloatMatrix(N, M);
+        for (int i = 0; i < M; i++)
+            for (int j = 0; j < N; j++)
+                A.data[j * M + i] = data[i * N + j];
+        return A;
+    }
+
+    // return C = A + B
+    public FloatMatrix plus(FloatMatrix B) {
+        return new FloatMatrix(this).axpy(1.0, B);
+    }
+
+    // return C = A - B
+    public FloatMatrix minus(FloatMatrix B) {
+        return new FloatMatrix(this).axpy(-1.0, B);
+    }
+
+    // A = A + B, no new matrix is created
+    public FloatMatrix plusInPlace(FloatMatrix B) {
+        return axpy(1.0, B);
+    }
+
+    // A = A - B, no new matrix is created
+    public FloatMatrix minusInPlace(FloatMatrix B) {
+        return axpy(-1.0, B);
+    }
+
+    // A = A + alpha*B, no new matrix is created
+    public FloatMatrix axpy(double alpha, FloatMatrix B) {
+        if (B.M != M || B.N != N) throw new RuntimeException("Illegal matrix dimensions.");
+        float a = (float) alpha;
+        for (int k = 0; k < data.length; k++)
+            data[k] += a * B.data[k];
+        return this;
+    }
+
+    //Hadamard product. Element wise multiplication
+    public FloatMatrix times_hadamard(FloatMatrix B) {
+        if (B.M != M || B.N != N) throw new RuntimeException("Illegal matrix dimensions.");
+        FloatMatrix C = new FloatMatrix(M, N);
+        for (int k = 0; k < data.length; k++)
+            C.data[k] = data[k] * B.data[k];
+        return C;
+    }
+
+    // return A*x multiply each elements by number
+    public FloatMatrix scale(double factor) {
+        float f = (float) factor;
+        for (int k = 0; k < data.length; k++)
+            data[k] *= f;
+        return this;
+    }
+
+    // A = B, copies the values of B into A
+    public FloatMatrix copyFrom(FloatMatrix B) {
+        if (B.M != M || B.N != N) throw new RuntimeException("Illegal matrix dimensions.");
+        System.arraycopy(B.data, 0, data, 0, data.length);
+        return this;
+    }
+
+    // return C = A * B, accumulated in double on the packed kernel
+    public FloatMatrix times(FloatMatrix B) {
+        if (N != B.M) throw new RuntimeException("Illegal matrix dimensions.");
+        FloatMatrix C = new FloatMatrix(M, B.N);
+        Gemm.gemm(M, B.N, N, 1.0,
+                data, 0, N, 1,
+                B.data, 0, B.N, 1,
+                C.data, 0, C.N, 1);
+        return C;
+    }
+
+    /**
+     * Fused dense layer kernel, see Matrix.denseForward. Products are
+     * accumulated in double.
+     *
+     * @param x input column vector
+     * @param b bias column vector
+     * @param z receives A*x + b
+     * @param out receives f(z)
+     * @param deriv receives df(z, f(z))
+     * @param f activation function
+     * @param df derivative of the activation function given z and f(z)
+     */
+    public void denseForward(Matrix x, Matrix b, Matrix z, Matrix out, Matrix deriv,
+            DoubleUnaryOperator f, DoubleBinaryOperator df) {
+        Matrix.checkDense(M, N, x.M, x.N, b, z, out, deriv, f, df);
+        if (x.N != 1) {
+            timesInto(x, z);
+            Matrix.activate(b, z, out, deriv, f, df);
+            return;
+        }
+        if (x.isDirect()) x = new Matrix(x);
+        double[] xd = x.data;
+        for (int i = 0; i < M; i++) {
+            double sum = 0;
+            int a = i * N;
+            int xi = x.offset;
+            for (int p = 0; p < N; p++, a++, xi += x.rowStride)
+                sum += data[a] * xd[xi];
+            double zi = b.get(b.offset + i * b.rowStride) + sum;
+            z.set(z.offset + i * z.rowStride, zi);
+            if (f == null) continue;
+            double oi = f.applyAsDouble(zi);
+            out.set(out.offset + i * out.rowStride, oi);
+            if (df != null)
+                deriv.set(deriv.offset + i * deriv.rowStride, df.applyAsDouble(zi, oi));
+        }
+    }
+
+    // fused dense layer kernel for a sparse input, see Matrix.denseForward
+    public void denseForward(SparseMatrix x, Matrix b, Matrix z, Matrix out, Matrix deriv,
+            DoubleUnaryOperator f, DoubleBinaryOperator df) {
+        Matrix.checkDense(M, N, x.M, x.N, b, z, out, deriv, f, df);
+        if (x.N != 1) throw new RuntimeException("Illegal matrix dimensions.");
+        int nnz = x.values.length;
+        for (int i = 0; i < M; i++) {
+            double sum = 0;
+            int a = i * N;
+            for (int k = 0; k < nnz; k++)
+                sum += data[a + x.rowIdx[k]] * x.values[k];
+            double zi = b.get(b.offset + i * b.rowStride) + sum;
+            z.set(z.offset + i * z.rowStride, zi);
+            if (f == null) continue;
+            double oi = f.applyAsDouble(zi);
+            out.set(out.offset + i * out.rowStride, oi);
+            if (df != null)
+                deriv.set(deriv.offset + i * deriv.rowStride, df.applyAsDouble(zi, oi));
+        }
+    }
+
+    // dest = A * X accumulated in double, dest must not share storage with X
+    private Matrix timesInto(Matrix X, Matrix dest) {
+        if (dest.overlaps(X)) throw new RuntimeException("Destination matrix overlaps an operand.");
+        if (X.isDirect() || dest.isDirect()) {
+            //Kernels work on arrays, multiply heap copies of off-heap operands
+            Matrix c = dest.isDirect() ? new Matrix(dest.M, dest.N) : dest;
+            timesInto(X.isDirect() ? new Matrix(X) : X, c);
+            return c == dest ? dest : dest.copyFrom(c);
+        }
+        Gemm.gemm(M, X.N, N, 1.0,
+                data, 0, N, 1,
+                X.data, X.offset, X.rowStride, X.colStride,
+                0.0, dest.data, dest.offset, dest.rowStride, dest.colStride);
+        return dest;
+    }
+
+    // return A^T * v for a column vector v, accumulated in double
+    public Matrix timesTransposeLeft(Matrix v) {
+        return timesTransposeLeftInto(v, new Matrix(N, v.N));
+    }
+
+    // dest = A^T * V for the columns of V, returns dest. dest must not share storage with V
+    public Matrix timesTransposeLeftInto(Matrix V, Matrix dest) {
+        if (V.M != M || dest.M != N || dest.N != V.N)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        if (dest.overlaps(V)) throw new RuntimeException("Destination matrix overlaps an operand.");
+        if (V.isDirect() || dest.isDirect()) {
+            //Kernels work on arrays, multiply heap copies of off-heap operands
+            Matrix c = dest.isDirect() ? new Matrix(dest.M, dest.N) : dest;
+            timesTransposeLeftInto(V.isDirect() ? new Matrix(V) : V, c);
+            return c == dest ? dest : dest.copyFrom(c);
+        }
+        if (V.N != 1) {
+            //A^T is A read with swapped strides
+            Gemm.gemm(N, V.N, M, 1.0,
+                    data, 0, 1, N,
+                    V.data, V.offset, V.rowStride, V.colStride,
+                    0.0, dest.data, dest.offset, dest.rowStride, dest.colStride);
+            return dest;
+        }
+        //Rows of A are read once, each adds its multiple to dest
+        double[] d = dest.data, v = V.data;
+        for (int j = 0, c = dest.offset; j < N; j++, c += dest.rowStride)
+            d[c] = 0;
+        for (int i = 0; i < M; i++) {
+            double vi = v[V.offset + i * V.rowStride];
+            int a = i * N;
+            for (int j = 0, c = dest.offset; j < N; j++, a++, c += dest.rowStride)
+                d[c] += data[a] * vi;
+        }
+        return dest;
+    }
+
+    // Rank one update A = A + alpha * x * y^T for column vectors x and y
+    public FloatMatrix ger(double alpha, Matrix x, Matrix y) {
+        if (x.M != M || x.N != 1 || y.M != N || y.N != 1)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        if (y.isDirect()) y = new Matrix(y);
+        double[] yd = y.data;
+        for (int i = 0; i < M; i++) {
+            double axi = alpha * x.get(x.offset + i * x.rowStride);
+            int a = i * N;
+            int yj = y.offset;
+            for (int j = 0; j < N; j++, a++, yj += y.rowStride)
+                data[a] += (float) (axi * yd[yj]);
+        }
+        return this;
+    }
+
+    // Rank k update A = A + alpha * X * Y^T, see Matrix.rankUpdate. Sums in double
+    public FloatMatrix rankUpdate(double alpha, Matrix X, Matrix Y) {
+        if (X.M != M || Y.M != N || X.N != Y.N) throw new RuntimeException("Illegal matrix dimensions.");
+        //Kernels work on arrays, multiply heap copies of off-heap operands
+        if (X.isDirect()) X = new Matrix(X);
+        if (Y.isDirect()) Y = new Matrix(Y);
+        Gemm.gemm(M, N, X.N, alpha,
+                X.data, X.offset, X.rowStride, X.colStride,
+                Y.data, Y.offset, Y.colStride, Y.rowStride,
+                data, 0, N, 1);
+        return this;
+    }
+
+    // Rank one update A = A + alpha * x * y^T for a sparse column vector y
+    public FloatMatrix ger(double alpha, Matrix x, SparseMatrix y) {
+        if (x.M != M || x.N != 1 || y.M != N || y.N != 1)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        int nnz = y.values.length;
+        for (int i = 0; i < M; i++) {
+            double axi = alpha * x.get(x.offset + i * x.rowStride);
+            int a = i * N;
+            for (int k = 0; k < nnz; k++)
+                data[a + y.rowIdx[k]] += (float) (axi * y.values[k]);
+        }
+        return this;
+    }
+
+    // print matrix to standard output
+    public void show() {
+        for (int i = 0; i < M; i++) {
+            for (int j = 0; j < N; j++)
+                System.out.printf("%9.4f ", data[i * N + j]);
+            System.out.println();
+        }
+    }
+}
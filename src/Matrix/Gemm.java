@@ -0,0 +1,465 @@
+package Matrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Matrix multiplication kernels used by Matrix. All methods work on flat
+ * arrays described by an offset, a row stride and a column stride, so any
+ * Matrix layout (including a transposed one, by swapping strides) can be
+ * passed without copying.
+ *
+ * Large products are computed with the usual blocked scheme: a KC x NC
+ * panel of B and a MC x KC panel of A are packed into contiguous buffers
+ * and a MR x NR register blocked micro kernel accumulates the product.
+ * Small products and matrix-vector products skip the packing.
+ *
+ * Products with more multiply-adds than the parallel threshold are split
+ * in row or column panels of C and computed on a ForkJoinPool. Every
+ * element of C is still computed by one thread in the same order, so
+ * results do not depend on the number of threads.
+ *
+ * A, B and C can also be single precision arrays, for FloatMatrix. Float
+ * operands are converted to double when they are packed and a float C is
+ * updated from the double tile of the micro kernel, so these products
+ * always take the blocked path and run on the same micro kernel.
+ */
+final class Gemm {
+
+    static final int MR = 4; // rows of the micro kernel
+    static final int NR = 4; // columns of the micro kernel
+
+    //Tile sizes. Defaults keep the A panel in L2 and the B panel in L3
+    private static int MC = 64;
+    private static int KC = 256;
+    private static int NC = 1024;
+
+    //Below this number of multiply-adds the packing is not worth it
+    private static final int SMALL = 32 * 32 * 32;
+
+    //Kernel families. Chosen once per product so panels sum in the same order
+    private static final int GEMV = 0;
+    private static final int IKJ = 1;
+    private static final int BLOCKED = 2;
+
+    //Parallel settings. pool == null and poolSet == true disables threading
+    private static volatile ForkJoinPool pool;
+    private static volatile boolean poolSet = false;
+    private static volatile long parallelThreshold = 1L << 20;
+
+    //Packing buffers, one set per thread
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private Gemm() {
+    }
+
+    /**
+     * Sets the tile sizes of the blocked kernel. mc is rounded up to a
+     * multiple of MR and nc to a multiple of NR.
+     *
+     * @param mc rows of A packed at once
+     * @param kc inner dimension packed at once
+     * @param nc columns of B packed at once
+     */
+    static synchronized void setBlockSizes(int mc, int kc, int nc) {
+        if (mc < 1 || kc < 1 || nc < 1) throw new RuntimeException("Illegal block size.");
+        MC = ((mc + MR - 1) / MR) * MR;
+        KC = kc;
+        NC = ((nc + NR - 1) / NR) * NR;
+    }
+
+    /**
+     * Sets the pool used for parallel products. null makes every product
+     * single threaded.
+     *
+     * @param p pool to use
+     */
+    static synchronized void setPool(ForkJoinPool p) {
+        pool = p;
+        poolSet = true;
+    }
+
+    /**
+     * Returns the pool used for parallel products. Unless one was set, a
+     * pool owned by the library is created on first use, so products do
+     * not compete with tasks in the common pool.
+     *
+     * @return pool or null when threading is disabled
+     */
+    static ForkJoinPool getPool() {
+        if (!poolSet) {
+            synchronized (Gemm.class) {
+                if (!poolSet) {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    pool = threads > 1 ? new ForkJoinPool(threads) : null;
+                    poolSet = true;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Sets the minimum number of multiply-adds (m*n*k) of a product before
+     * it is split across threads.
+     *
+     * @param threshold multiply-adds
+     */
+    static void setParallelThreshold(long threshold) {
+        if (threshold < 1) throw new RuntimeException("Illegal parallel threshold.");
+        parallelThreshold = threshold;
+    }
+
+    static long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * C = alpha*A*B + beta*C, A is m x k, B is k x n and C is m x n.
+     */
+    static void gemm(int m, int n, int k, double alpha,
+            double[] a, int ao, int ars, int acs,
+            double[] b, int bo, int brs, int bcs,
+            double beta, double[] c, int co, int crs, int ccs) {
+
+        scaleC(m, n, beta, c, co, crs, ccs);
+        if (m == 0 || n == 0 || k == 0 || alpha == 0) return;
+
+        long work = (long) m * n * k;
+        int kind = n == 1 ? GEMV : work <= SMALL ? IKJ : BLOCKED;
+        run(kind, m, n, k, alpha, a, null, ao, ars, acs, b, null, bo, brs, bcs, c, null, co, crs, ccs);
+    }
+
+    /**
+     * C = alpha*A*B + beta*C for a single precision A, A is m x k, B is
+     * k x n and C is m x n.
+     */
+    static void gemm(int m, int n, int k, double alpha,
+            float[] a, int ao, int ars, int acs,
+            double[] b, int bo, int brs, int bcs,
+            double beta, double[] c, int co, int crs, int ccs) {
+
+        scaleC(m, n, beta, c, co, crs, ccs);
+        if (m == 0 || n == 0 || k == 0 || alpha == 0) return;
+        run(BLOCKED, m, n, k, alpha, null, a, ao, ars, acs, b, null, bo, brs, bcs, c, null, co, crs, ccs);
+    }
+
+    /**
+     * C = alpha*A*B + C for a single precision C, A is m x k, B is k x n
+     * and C is m x n. The products are summed in double, each KC panel of
+     * the inner dimension is added to C once.
+     */
+    static void gemm(int m, int n, int k, double alpha,
+            double[] a, int ao, int ars, int acs,
+            double[] b, int bo, int brs, int bcs,
+            float[] c, int co, int crs, int ccs) {
+
+        if (m == 0 || n == 0 || k == 0 || alpha == 0) return;
+        run(BLOCKED, m, n, k, alpha, a, null, ao, ars, acs, b, null, bo, brs, bcs, null, c, co, crs, ccs);
+    }
+
+    /**
+     * C = alpha*A*B + C with all operands in single precision, A is m x k,
+     * B is k x n and C is m x n. The products are summed in double.
+     */
+    static void gemm(int m, int n, int k, double alpha,
+            float[] a, int ao, int ars, int acs,
+            float[] b, int bo, int brs, int bcs,
+            float[] c, int co, int crs, int ccs) {
+
+        if (m == 0 || n == 0 || k == 0 || alpha == 0) return;
+        run(BLOCKED, m, n, k, alpha, null, a, ao, ars, acs, null, b, bo, brs, bcs, null, c, co, crs, ccs);
+    }
+
+    // C += alpha*A*B, split across the pool for large products. Of a/af, b/bf and c/cf one is null
+    private static void run(int kind, int m, int n, int k, double alpha,
+            double[] a, float[] af, int ao, int ars, int acs,
+            double[] b, float[] bf, int bo, int brs, int bcs,
+            double[] c, float[] cf, int co, int crs, int ccs) {
+        long work = (long) m * n * k;
+        ForkJoinPool p = work >= parallelThreshold ? getPool() : null;
+        if (p != null && p.getParallelism() > 1) {
+            //Aim for a few panels per thread so the pool can balance the load
+            long grain = Math.max(parallelThreshold / 4, work / (4L * p.getParallelism()));
+            p.invoke(new Panel(kind, 0, m, 0, n, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs,
+                    c, cf, co, crs, ccs, grain));
+        } else {
+            multiply(kind, 0, m, 0, n, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs, c, cf, co, crs, ccs);
+        }
+    }
+
+    // C[i0:i1, j0:j1] += alpha*A*B on the calling thread
+    private static void multiply(int kind, int i0, int i1, int j0, int j1, int k, double alpha,
+            double[] a, float[] af, int ao, int ars, int acs,
+            double[] b, float[] bf, int bo, int brs, int bcs,
+            double[] c, float[] cf, int co, int crs, int ccs) {
+        switch (kind) {
+            case GEMV:
+                gemv(i1 - i0, k, alpha, a, ao + i0 * ars, ars, acs, b, bo + j0 * bcs, brs,
+                        c, co + i0 * crs + j0 * ccs, crs);
+                break;
+            case IKJ:
+                ikj(i0, i1, j0, j1, k, alpha, a, ao, ars, acs, b, bo, brs, bcs, c, co, crs, ccs);
+                break;
+            default:
+                blocked(i0, i1, j0, j1, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs, c, cf, co, crs, ccs);
+                break;
+        }
+    }
+
+    // C = beta*C
+    static void scaleC(int m, int n, double beta, double[] c, int co, int crs, int ccs) {
+        if (beta == 1) return;
+        for (int i = 0; i < m; i++) {
+            int ci = co + i * crs;
+            for (int j = 0; j < n; j++, ci += ccs)
+                c[ci] = beta == 0 ? 0 : c[ci] * beta;
+        }
+    }
+
+    // y += alpha*A*x, one dot product per row of A
+    static void gemv(int m, int k, double alpha,
+            double[] a, int ao, int ars, int acs,
+            double[] x, int xo, int xs,
+            double[] y, int yo, int ys) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int i = 0; i < m; i++) {
+            double sum = 0;
+            int ai = ao + i * ars;
+            if (acs == 1 && xs == 1) {
+                sum = kernels.dot(a, ai, x, xo, k);
+            } else {
+                int xi = xo;
+                for (int p = 0; p < k; p++, ai += acs, xi += xs)
+                    sum += a[ai] * x[xi];
+            }
+            y[yo + i * ys] += alpha * sum;
+        }
+    }
+
+    // C[i0:i1, j0:j1] += alpha*A*B, i-k-j loop order without packing
+    static void ikj(int i0, int i1, int j0, int j1, int k, double alpha,
+            double[] a, int ao, int ars, int acs,
+            double[] b, int bo, int brs, int bcs,
+            double[] c, int co, int crs, int ccs) {
+        for (int i = i0; i < i1; i++) {
+            int ai = ao + i * ars;
+            int crow = co + i * crs + j0 * ccs;
+            for (int p = 0; p < k; p++, ai += acs) {
+                double aip = alpha * a[ai];
+                int bi = bo + p * brs + j0 * bcs;
+                int ci = crow;
+                for (int j = j0; j < j1; j++, bi += bcs, ci += ccs)
+                    c[ci] += aip * b[bi];
+            }
+        }
+    }
+
+    // C[i0:i1, j0:j1] += alpha*A*B using packed panels. Of a/af, b/bf and c/cf one is null
+    static void blocked(int i0, int i1, int j0, int j1, int k, double alpha,
+            double[] a, float[] af, int ao, int ars, int acs,
+            double[] b, float[] bf, int bo, int brs, int bcs,
+            double[] c, float[] cf, int co, int crs, int ccs) {
+
+        final int mcMax = MC, kcMax = KC, ncMax = NC;
+        Buffers buf = BUFFERS.get();
+        double[] ap = buf.a(mcMax * kcMax);
+        double[] bp = buf.b(kcMax * ncMax);
+
+        for (int jc = j0; jc < j1; jc += ncMax) {
+            int nc = Math.min(ncMax, j1 - jc);
+            for (int pc = 0; pc < k; pc += kcMax) {
+                int kc = Math.min(kcMax, k - pc);
+                if (bf != null) {
+                    packB(kc, nc, bf, bo + pc * brs + jc * bcs, brs, bcs, bp);
+                } else {
+                    packB(kc, nc, b, bo + pc * brs + jc * bcs, brs, bcs, bp);
+                }
+                for (int ic = i0; ic < i1; ic += mcMax) {
+                    int mc = Math.min(mcMax, i1 - ic);
+                    if (af != null) {
+                        packA(mc, kc, af, ao + ic * ars + pc * acs, ars, acs, ap);
+                    } else {
+                        packA(mc, kc, a, ao + ic * ars + pc * acs, ars, acs, ap);
+                    }
+                    for (int jr = 0; jr < nc; jr += NR) {
+                        int nr = Math.min(NR, nc - jr);
+                        for (int ir = 0; ir < mc; ir += MR) {
+                            int mr = Math.min(MR, mc - ir);
+                            kernel(kc, alpha, ap, ir * kc, bp, jr * kc,
+                                    c, cf, co + (ic + ir) * crs + (jc + jr) * ccs, crs, ccs,
+                                    mr, nr, buf.tile);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Packs a mc x kc block of A in slivers of MR rows, zero padded
+    private static void packA(int mc, int kc, double[] a, int ao, int ars, int acs, double[] ap) {
+        int dst = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                int src = ao + ir * ars + p * acs;
+                int ii = 0;
+                for (; ii < mr; ii++, src += ars)
+                    ap[dst++] = a[src];
+                for (; ii < MR; ii++)
+                    ap[dst++] = 0;
+            }
+        }
+    }
+
+    // Packs a mc x kc block of a single precision A in slivers of MR rows, zero padded
+    private static void packA(int mc, int kc, float[] a, int ao, int ars, int acs, double[] ap) {
+        int dst = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                int src = ao + ir * ars + p * acs;
+                int ii = 0;
+                for (; ii < mr; ii++, src += ars)
+                    ap[dst++] = a[src];
+                for (; ii < MR; ii++)
+                    ap[dst++] = 0;
+            }
+        }
+    }
+
+    // Packs a kc x nc block of B in slivers of NR columns, zero padded
+    private static void packB(int kc, int nc, double[] b, int bo, int brs, int bcs, double[] bp) {
+        int dst = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                int src = bo + p * brs + jr * bcs;
+                int jj = 0;
+                for (; jj < nr; jj++, src += bcs)
+                    bp[dst++] = b[src];
+                for (; jj < NR; jj++)
+                    bp[dst++] = 0;
+            }
+        }
+    }
+
+    // Packs a kc x nc block of a single precision B in slivers of NR columns, zero padded
+    private static void packB(int kc, int nc, float[] b, int bo, int brs, int bcs, double[] bp) {
+        int dst = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                int src = bo + p * brs + jr * bcs;
+                int jj = 0;
+                for (; jj < nr; jj++, src += bcs)
+                    bp[dst++] = b[src];
+                for (; jj < NR; jj++)
+                    bp[dst++] = 0;
+            }
+        }
+    }
+
+    // MR x NR micro kernel. C block += alpha * A sliver * B sliver, C is c or cf
+    private static void kernel(int kc, double alpha, double[] ap, int pa, double[] bp, int pb,
+            double[] c, float[] cf, int co, int crs, int ccs, int mr, int nr, double[] tile) {
+        Kernels.INSTANCE.micro(kc, ap, pa, bp, pb, tile);
+        if (cf != null) {
+            for (int i = 0; i < mr; i++) {
+                int ci = co + i * crs;
+                for (int j = 0; j < nr; j++, ci += ccs)
+                    cf[ci] += (float) (alpha * tile[i * NR + j]);
+            }
+            return;
+        }
+        for (int i = 0; i < mr; i++) {
+            int ci = co + i * crs;
+            for (int j = 0; j < nr; j++, ci += ccs)
+                c[ci] += alpha * tile[i * NR + j];
+        }
+    }
+
+    //Splits C in row or column panels until each one is below the grain
+    private static final class Panel extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int kind, i0, i1, j0, j1, k;
+        private final double alpha;
+        private final double[] a, b, c;
+        private final float[] af, bf, cf;   // single precision operands, see gemm
+        private final int ao, ars, acs, bo, brs, bcs, co, crs, ccs;
+        private final long grain;
+
+        Panel(int kind, int i0, int i1, int j0, int j1, int k, double alpha,
+                double[] a, float[] af, int ao, int ars, int acs,
+                double[] b, float[] bf, int bo, int brs, int bcs,
+                double[] c, float[] cf, int co, int crs, int ccs, long grain) {
+            this.kind = kind;
+            this.i0 = i0;
+            this.i1 = i1;
+            this.j0 = j0;
+            this.j1 = j1;
+            this.k = k;
+            this.alpha = alpha;
+            this.a = a;
+            this.af = af;
+            this.ao = ao;
+            this.ars = ars;
+            this.acs = acs;
+            this.b = b;
+            this.bf = bf;
+            this.bo = bo;
+            this.brs = brs;
+            this.bcs = bcs;
+            this.c = c;
+            this.cf = cf;
+            this.co = co;
+            this.crs = crs;
+            this.ccs = ccs;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = i1 - i0;
+            int cols = j1 - j0;
+            if ((long) rows * cols * k <= grain || (rows <= MR && cols <= NR)) {
+                multiply(kind, i0, i1, j0, j1, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs, c, cf, co, crs, ccs);
+                return;
+            }
+            //Split the longest side, keeping panels aligned to the micro kernel
+            if (rows >= cols) {
+                int mid = i0 + Math.max(MR, (rows / 2 / MR) * MR);
+                invokeAll(new Panel(kind, i0, mid, j0, j1, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs, c, cf, co, crs, ccs, grain),
+                        new Panel(kind, mid, i1, j0, j1, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs, c, cf, co, crs, ccs, grain));
+            } else {
+                int mid = j0 + Math.max(NR, (cols / 2 / NR) * NR);
+                invokeAll(new Panel(kind, i0, i1, j0, mid, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs, c, cf, co, crs, ccs, grain),
+                        new Panel(kind, i0, i1, mid, j1, k, alpha, a, af, ao, ars, acs, b, bf, bo, brs, bcs, c, cf, co, crs, ccs, grain));
+            }
+        }
+    }
+
+    //Per thread packing buffers, grown on demand
+    private static final class Buffers {
+        private double[] a = new double[0];
+        private double[] b = new double[0];
+        private final double[] tile = new double[MR * NR];
+
+        double[] a(int size) {
+            if (a.length < size) a = new double[size];
+            return a;
+        }
+
+        double[] b(int size) {
+            if (b.length < size) b = new double[size];
+            return b;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package Matrix;
+
+/**
+ * Element wise loops, inner products and the GEMM micro kernel used by
+ * Matrix on contiguous data. This class is the scalar implementation and
+ * is always available.
+ *
+ * When the classes from src-vector were compiled (JDK 16 or newer) and the
+ * JVM is started with --add-modules jdk.incubator.vector, the subclass
+ * VectorKernels is loaded instead and the same loops run on SIMD
+ * registers. Element wise results and the micro kernel are identical to
+ * the scalar ones; sums and dot products add in a different order, so they
+ * may differ in the last bits. Setting the system property
+ * matrix.scalar=true forces the scalar kernels.
+ */
+class Kernels {
+
+    static final Kernels INSTANCE = load();
+
+    private static Kernels load() {
+        if (Boolean.getBoolean("matrix.scalar")) {
+            return new Kernels();
+        }
+        try {
+            Class<?> c = Class.forName("Matrix.VectorKernels");
+            return (Kernels) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //Not compiled, older JVM or module not resolved
+            return new Kernels();
+        }
+    }
+
+    boolean isVectorized() {
+        return false;
+    }
+
+    // c = a + alpha*b, c may be a or b
+    void add(double[] a, int ao, double alpha, double[] b, int bo, double[] c, int co, int n) {
+        for (int k = 0; k < n; k++)
+            c[co + k] = a[ao + k] + alpha * b[bo + k];
+    }
+
+    // c = a .* b, c may be a or b
+    void mul(double[] a, int ao, double[] b, int bo, double[] c, int co, int n) {
+        for (int k = 0; k < n; k++)
+            c[co + k] = a[ao + k] * b[bo + k];
+    }
+
+    // a = a * factor
+    void scale(double[] a, int ao, double factor, int n) {
+        for (int k = ao; k < ao + n; k++)
+            a[k] *= factor;
+    }
+
+    // sum of a[ao..ao+n)
+    double sum(double[] a, int ao, int n) {
+        double sum = 0;
+        for (int k = ao; k < ao + n; k++)
+            sum += a[k];
+        return sum;
+    }
+
+    // inner product of a[ao..ao+n) and b[bo..bo+n)
+    double dot(double[] a, int ao, double[] b, int bo, int n) {
+        double sum = 0;
+        for (int k = 0; k < n; k++)
+            sum += a[ao + k] * b[bo + k];
+        return sum;
+    }
+
+    // 4x4 product of a packed A sliver and a packed B sliver into tile
+    void micro(int kc, double[] ap, int pa, double[] bp, int pb, double[] tile) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for (int p = 0; p < kc; p++, pa += 4, pb += 4) {
+            double a0 = ap[pa], a1 = ap[pa + 1], a2 = ap[pa + 2], a3 = ap[pa + 3];
+            double b0 = bp[pb], b1 = bp[pb + 1], b2 = bp[pb + 2], b3 = bp[pb + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+        }
+
+        tile[0] = c00; tile[1] = c01; tile[2] = c02; tile[3] = c03;
+        tile[4] = c10; tile[5] = c11; tile[6] = c12; tile[7] = c13;
+        tile[8] = c20; tile[9] = c21; tile[10] = c22; tile[11] = c23;
+        tile[12] = c30; tile[13] = c31; tile[14] = c32; tile[15] = c33;
+    }
+}
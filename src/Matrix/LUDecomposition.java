@@ -0,0 +1,193 @@
+package Matrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * LU decomposition with partial pivoting, P*A = L*U, of a square matrix.
+ *
+ * The factorization is done once on a copy of A: L (unit diagonal, not
+ * stored) below the diagonal and U on and above it, with the row
+ * permutation kept in piv. Any number of right hand sides can then be
+ * solved in O(n^2) each. For large matrices the update of the rows below
+ * the pivot is split across the threads of the multiplication pool
+ * (see Matrix.setParallelPool and Matrix.setParallelThreshold).
+ */
+final public class LUDecomposition {
+    private final int n;
+    private final double[] lu;  // L and U, row-major
+    private final int[] piv;    // row i of L*U is row piv[i] of A
+    private final int sign;     // sign of the permutation
+    private final boolean singular;
+
+    // factor the square matrix A, A is not modified
+    public LUDecomposition(Matrix A) {
+        if (A.getRows() != A.getCols()) throw new RuntimeException("Illegal matrix dimensions.");
+        n = A.getRows();
+        lu = new Matrix(A).data;
+        piv = new int[n];
+        for (int i = 0; i < n; i++)
+            piv[i] = i;
+
+        int s = 1;
+        boolean zeroPivot = false;
+        for (int k = 0; k < n; k++) {
+            // find pivot row and swap
+            int max = k;
+            for (int i = k + 1; i < n; i++)
+                if (Math.abs(lu[i * n + k]) > Math.abs(lu[max * n + k]))
+                    max = i;
+            if (max != k) {
+                swapRows(k, max);
+                int t = piv[k];
+                piv[k] = piv[max];
+                piv[max] = t;
+                s = -s;
+            }
+
+            // singular, the column is already eliminated
+            double pivot = lu[k * n + k];
+            if (pivot == 0.0) {
+                zeroPivot = true;
+                continue;
+            }
+
+            // multipliers and update of the rows below the pivot
+            long work = (long) (n - k - 1) * (n - k - 1);
+            ForkJoinPool pool = work >= Gemm.getParallelThreshold() ? Gemm.getPool() : null;
+            if (pool != null) {
+                int grain = Math.max(16, (n - k - 1) / (4 * pool.getParallelism()));
+                pool.invoke(new Rows(k, k + 1, n, grain));
+            } else {
+                eliminate(k, k + 1, n);
+            }
+        }
+        sign = s;
+        singular = zeroPivot;
+    }
+
+    private void swapRows(int i, int j) {
+        for (int c = 0, a = i * n, b = j * n; c < n; c++, a++, b++) {
+            double t = lu[a];
+            lu[a] = lu[b];
+            lu[b] = t;
+        }
+    }
+
+    // eliminate column k from rows i0..i1-1
+    private void eliminate(int k, int i0, int i1) {
+        double pivot = lu[k * n + k];
+        int pk = k * n;
+        for (int i = i0; i < i1; i++) {
+            int r = i * n;
+            double m = lu[r + k] / pivot;
+            lu[r + k] = m;
+            for (int c = k + 1; c < n; c++)
+                lu[r + c] -= m * lu[pk + c];
+        }
+    }
+
+    // rows of one elimination step, split in halves down to grain rows
+    private final class Rows extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int k, i0, i1, grain;
+
+        Rows(int k, int i0, int i1, int grain) {
+            this.k = k;
+            this.i0 = i0;
+            this.i1 = i1;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (i1 - i0 <= grain) {
+                eliminate(k, i0, i1);
+                return;
+            }
+            int mid = (i0 + i1) >>> 1;
+            invokeAll(new Rows(k, i0, mid, grain), new Rows(k, mid, i1, grain));
+        }
+    }
+
+    // true if A has no zero pivot, i.e. is invertible
+    public boolean isNonsingular() {
+        return !singular;
+    }
+
+    // return the determinant of A
+    public double determinant() {
+        double det = sign;
+        for (int i = 0; i < n; i++)
+            det *= lu[i * n + i];
+        return det;
+    }
+
+    // return the unit lower triangular factor L
+    public Matrix getL() {
+        Matrix L = new Matrix(n, n);
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(lu, i * n, L.data, i * n, i);
+            L.data[i * n + i] = 1;
+        }
+        return L;
+    }
+
+    // return the upper triangular factor U
+    public Matrix getU() {
+        Matrix U = new Matrix(n, n);
+        for (int i = 0; i < n; i++)
+            System.arraycopy(lu, i * n + i, U.data, i * n + i, n - i);
+        return U;
+    }
+
+    // return the pivot rows, row i of L*U is row getPivot()[i] of A (0 based)
+    public int[] getPivot() {
+        return piv.clone();
+    }
+
+    /**
+     * Solves A*X = B for all the columns of B.
+     *
+     * @param B right hand sides, n rows
+     * @return solution X of the size of B
+     */
+    public Matrix solve(Matrix B) {
+        if (B.getRows() != n) throw new RuntimeException("Illegal matrix dimensions.");
+        if (singular) throw new RuntimeException("Matrix is singular.");
+        int r = B.getCols();
+        // X = P*B
+        Matrix X = new Matrix(n, r);
+        for (int i = 0; i < n; i++)
+            B.row(piv[i] + 1).copyTo(X.data, i * r);
+        double[] x = X.data;
+
+        // forward substitution L*Y = P*B
+        for (int k = 0; k < n; k++)
+            for (int i = k + 1; i < n; i++) {
+                double m = lu[i * n + k];
+                for (int c = 0, a = i * r, b = k * r; c < r; c++, a++, b++)
+                    x[a] -= m * x[b];
+            }
+
+        // back substitution U*X = Y
+        for (int k = n - 1; k >= 0; k--) {
+            double d = lu[k * n + k];
+            for (int c = k * r; c < (k + 1) * r; c++)
+                x[c] /= d;
+            for (int i = 0; i < k; i++) {
+                double m = lu[i * n + k];
+                for (int c = 0, a = i * r, b = k * r; c < r; c++, a++, b++)
+                    x[a] -= m * x[b];
+            }
+        }
+        return X;
+    }
+
+    // return A^-1
+    public Matrix inverse() {
+        return solve(Matrix.identity(n));
+    }
+}
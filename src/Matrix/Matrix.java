@@ -1,20 +1,52 @@
 package Matrix;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 /**
+ * Dense matrix of doubles. Elements are kept in a single row-major array;
+ * element (i,j) (0 based) lives at data[offset + i*rowStride + j*colStride].
+ * Public accessors keep the original 1 based indexing.
  *
- * 
+ * Matrices allocated from a MatrixArena keep their elements off the Java
+ * heap in a direct buffer instead of the array. Every operation accepts
+ * them; the array kernels are used for heap matrices and a generic element
+ * by element path (or a heap copy for multiplications) for the others.
+ *
+ * Rows, columns and sub-blocks can be taken as views (row, column, view).
+ * A view shares the storage of its parent, writes through it are seen by
+ * the parent, and it can be passed to every operation.
  */
 final public class Matrix implements Serializable{
-    private final int M;             // number of rows
-    private final int N;             // number of columns
-    private final double[][] data;   // M-by-N array
+    // storage fields are package visible for the other matrix types
+    int M;             // number of rows
+    int N;             // number of columns
+    double[] data;     // row-major storage, null for off-heap matrices
+    DoubleBuffer buffer; // off-heap storage of MatrixArena matrices
+    int offset;        // index of element (0,0) in data
+    int rowStride;     // distance in data between two rows
+    int colStride;     // distance in data between two columns
+    Matrix owner;      // matrix owning the storage of a view, null otherwise
 
     private static final long serialVersionUID = 2L;
+
+    // Serialized form is the original one (M, N, double[][] data) so
+    // networks saved by previous versions can still be loaded.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("M", int.class),
+        new ObjectStreamField("N", int.class),
+        new ObjectStreamField("data", double[][].class)
+    };
     
     /**
      * 
@@ -25,107 +57,216 @@ final public class Matrix implements Serializable{
     public Matrix(int M, int N) {
         this.M = M;
         this.N = N;
-        data = new double[M][N];
+        this.data = new double[M * N];
+        MatrixPool.recordAllocation(M * N);
+        this.offset = 0;
+        this.rowStride = N;
+        this.colStride = 1;
     }
 
     // create matrix based on 2d array
     public Matrix(double[][] data) {
-        M = data.length;
-        N = data[0].length;
-        this.data = new double[M][N];
+        this(data.length, data[0].length);
         for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                    this.data[i][j] = data[i][j];
+            System.arraycopy(data[i], 0, this.data, i * N, N);
+    }
+
+    // create M-by-N matrix stored off-heap in buffer starting at offset
+    Matrix(int M, int N, DoubleBuffer buffer, int offset) {
+        this.M = M;
+        this.N = N;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.rowStride = N;
+        this.colStride = 1;
+    }
+
+    // view of rows x cols elements of the storage of parent
+    private Matrix(Matrix parent, int offset, int rows, int cols, int rowStride, int colStride) {
+        this.M = rows;
+        this.N = cols;
+        this.data = parent.data;
+        this.buffer = parent.buffer;
+        this.owner = parent.owner != null ? parent.owner : parent;
+        this.offset = offset;
+        this.rowStride = rowStride;
+        this.colStride = colStride;
     }
 
     // copy constructor
-    public Matrix(Matrix A) { this(A.data); }
+    public Matrix(Matrix A) {
+        this(A.M, A.N);
+        A.copyTo(this.data, 0);
+    }
 
-    // create and return a random M-by-N matrix with values between -0.5 and 0.5
+    // create and return a random M-by-N matrix with values between -1 and 1
     public static Matrix random(int M, int N) {
+        return random(M, N, new SplittableRandom().nextLong());
+    }
+
+    // same as random(M, N), the values only depend on the seed
+    public static Matrix random(int M, int N, long seed) {
         Matrix A = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                A.data[i][j] = (Math.random()-0.5)*2;
+        RandomFill.uniform(A.data, seed, 2, -1);
         return A;
     }
-    
-    // create and return a random M-by-N matrix with values between -1 and 1
+
+    // create and return a random M-by-N matrix
     //normally distributed with mean=0 and sd=1
     public static Matrix random_gaussian(int M, int N) {
-        Random random=new Random();
+        return random_gaussian(M, N, new SplittableRandom().nextLong());
+    }
+
+    // same as random_gaussian(M, N), the values only depend on the seed
+    public static Matrix random_gaussian(int M, int N, long seed) {
         Matrix A = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                A.data[i][j] = random.nextGaussian();
+        RandomFill.gaussian(A.data, seed, 1);
         return A;
     }
 
-    // create and return a random M-by-N matrix with values between -1 and 1
+    // create and return a random M-by-N matrix of weights for N inputs
     //normally distributed with mean=0 and sd=sqrt(1/n_inputs)
     public static Matrix xavier(int M, int N) {
-        Random random=new Random();
+        return xavier(M, N, new SplittableRandom().nextLong());
+    }
+
+    // same as xavier(M, N), the values only depend on the seed
+    public static Matrix xavier(int M, int N, long seed) {
         Matrix A = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                A.data[i][j] = random.nextGaussian()*Math.sqrt(1/M);
+        RandomFill.gaussian(A.data, seed, Math.sqrt(1.0 / N));
         return A;
     }
-    
-    // create and return a random M-by-N matrix with values between -1 and 1
+
+    // create and return a random M-by-N matrix of weights for N inputs
     //normally distributed with mean=0 and sd=sqrt(2/n_inputs)
     public static Matrix he(int M, int N) {
-        Random random=new Random();
+        return he(M, N, new SplittableRandom().nextLong());
+    }
+
+    // same as he(M, N), the values only depend on the seed
+    public static Matrix he(int M, int N, long seed) {
         Matrix A = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                A.data[i][j] = random.nextGaussian()*Math.sqrt(2/M);
+        RandomFill.gaussian(A.data, seed, Math.sqrt(2.0 / N));
         return A;
     }
+
     // create and return the N-by-N identity matrix
     public static Matrix identity(int N) {
         Matrix I = new Matrix(N, N);
         for (int i = 0; i < N; i++)
-            I.data[i][i] = 1;
+            I.data[i * N + i] = 1;
         return I;
     }
 
-    // swap rows i and j
-    private void swap(int i, int j) {
-        double[] temp = data[i];
-        data[i] = data[j];
-        data[j] = temp;
+    // position of element (i,j) in data, 0 based
+    int index(int i, int j) {
+        return offset + i * rowStride + j * colStride;
+    }
+
+    // true if the elements are in the heap array row after row without gaps
+    boolean isContiguous() {
+        return data != null && colStride == 1 && (rowStride == N || M == 1);
+    }
+
+    // true if the elements are stored off the Java heap
+    public boolean isDirect() {
+        return data == null;
+    }
+
+    /**
+     * Returns the storage of a heap matrix that is not a view, the M*N
+     * elements row after row. Writes to the array change the matrix. Meant
+     * for array kernels outside this package, e.g. activation functions.
+     *
+     * @return the elements, null for views and off-heap matrices
+     */
+    public double[] getArray() {
+        return owner == null && data != null && offset == 0 && isContiguous() ? data : null;
+    }
+
+    // element at position idx of the storage
+    double get(int idx) {
+        if (data != null) return data[idx];
+        return direct().get(idx);
+    }
+
+    // set element at position idx of the storage
+    void set(int idx, double x) {
+        if (data != null) data[idx] = x;
+        else direct().put(idx, x);
+    }
+
+    // off-heap storage, fails once the arena has been closed
+    private DoubleBuffer direct() {
+        if (buffer == null || (owner != null && owner.buffer == null)) throw new IllegalStateException("Matrix memory has been released.");
+        return buffer;
+    }
+
+    // called by MatrixArena.close()
+    void release() {
+        buffer = null;
+    }
+
+    // true if both matrices may write to the same storage elements
+    boolean overlaps(Matrix B) {
+        boolean same = data != null ? data == B.data : buffer != null && buffer == B.buffer;
+        if (!same) return false;
+        int end = offset + (M - 1) * rowStride + (N - 1) * colStride;
+        int bEnd = B.offset + (B.M - 1) * B.rowStride + (B.N - 1) * B.colStride;
+        return offset <= bEnd && B.offset <= end;
+    }
+
+    // copy elements in row-major order into dest starting at pos
+    void copyTo(double[] dest, int pos) {
+        if (isContiguous()) {
+            System.arraycopy(data, offset, dest, pos, M * N);
+            return;
+        }
+        for (int i = 0; i < M; i++) {
+            int a = offset + i * rowStride;
+            for (int j = 0; j < N; j++, a += colStride)
+                dest[pos++] = get(a);
+        }
     }
 
     // create and return the transpose of the invoking matrix
     public Matrix transpose() {
         Matrix A = new Matrix(N, M);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                A.data[j][i] = this.data[i][j];
+        for (int i = 0; i < M; i++) {
+            int s = offset + i * rowStride;
+            for (int j = 0; j < N; j++, s += colStride)
+                A.data[j * M + i] = get(s);
+        }
         return A;
     }
 
     // return C = A + B
     public Matrix plus(Matrix B) {
-        Matrix A = this;
-        if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
-        Matrix C = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                C.data[i][j] = A.data[i][j] + B.data[i][j];
-        return C;
+        return addInto(1.0, B, new Matrix(M, N));
     }
 
 
     // return C = A - B
     public Matrix minus(Matrix B) {
+        return addInto(-1.0, B, new Matrix(M, N));
+    }
+
+    // C = A + alpha*B element by element. C may be A or B
+    private Matrix addInto(double alpha, Matrix B, Matrix C) {
         Matrix A = this;
-        if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
-        Matrix C = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                C.data[i][j] = A.data[i][j] - B.data[i][j];
+        if (B.M != A.M || B.N != A.N || C.M != A.M || C.N != A.N)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        if (A.isContiguous() && B.isContiguous() && C.isContiguous()) {
+            Kernels.INSTANCE.add(A.data, A.offset, alpha, B.data, B.offset, C.data, C.offset, M * N);
+            return C;
+        }
+        for (int i = 0; i < M; i++) {
+            int a = A.offset + i * A.rowStride;
+            int b = B.offset + i * B.rowStride;
+            int c = C.offset + i * C.rowStride;
+            for (int j = 0; j < N; j++, a += A.colStride, b += B.colStride, c += C.colStride)
+                C.set(c, A.get(a) + alpha * B.get(b));
+        }
         return C;
     }
 
@@ -133,93 +274,446 @@ final public class Matrix implements Serializable{
     public boolean eq(Matrix B) {
         Matrix A = this;
         if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                if (A.data[i][j] != B.data[i][j]) return false;
+        for (int i = 0; i < M; i++) {
+            int a = A.offset + i * A.rowStride;
+            int b = B.offset + i * B.rowStride;
+            for (int j = 0; j < N; j++, a += A.colStride, b += B.colStride)
+                if (A.get(a) != B.get(b)) return false;
+        }
         return true;
     }
 
+    // lazy element wise expression starting from A, evaluated in one pass by evalInto
+    public static MatrixExpression expr(Matrix A) {
+        return MatrixExpression.of(A);
+    }
+
     //Hadamard product. Element wise multiplication
     public Matrix times_hadamard(Matrix B){
         Matrix A = this;
         if ((A.M != B.M) || (A.N != B.N)) throw new RuntimeException("Illegal matrix dimensions.");
         Matrix C = new Matrix(A.M,A.N);
-        for(int i=0;i<A.M;i++){
-            for(int j=0;j<A.N;j++){
-                C.data[i][j]=A.data[i][j]*B.data[i][j];
+        if (A.isContiguous() && B.isContiguous()) {
+            Kernels.INSTANCE.mul(A.data, A.offset, B.data, B.offset, C.data, 0, C.data.length);
+            return C;
+        }
+        for(int i=0, c=0;i<A.M;i++){
+            int a = A.offset + i * A.rowStride;
+            int b = B.offset + i * B.rowStride;
+            for(int j=0;j<A.N;j++, a += A.colStride, b += B.colStride){
+                C.data[c++]=A.get(a)*B.get(b);
             }
         }
         return C;
     }
     // return C = A * B
     public Matrix times(Matrix B) {
-        Matrix A = this;
-        if (A.N != B.M) throw new RuntimeException("Illegal matrix dimensions.");
-        Matrix C = new Matrix(A.M, B.N);
-        for (int i = 0; i < C.M; i++)
-            for (int j = 0; j < C.N; j++)
-                for (int k = 0; k < A.N; k++)
-                    C.data[i][j] += (A.data[i][k] * B.data[k][j]);
+        return multiply(this, false, B, false, new Matrix(M, B.N));
+    }
+
+    // return C = A * B for a sparse B, only the non-zeros of B are visited
+    public Matrix times(SparseMatrix B) {
+        if (N != B.M) throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix C = new Matrix(M, B.N);
+        for (int i = 0; i < M; i++) {
+            int a = offset + i * rowStride;
+            for (int j = 0; j < B.N; j++) {
+                double sum = 0;
+                for (int k = B.colPtr[j]; k < B.colPtr[j + 1]; k++)
+                    sum += get(a + B.rowIdx[k] * colStride) * B.values[k];
+                C.data[i * C.N + j] = sum;
+            }
+        }
         return C;
     }
+
+    // return C = A^T * B without building the transpose of A
+    public Matrix timesTransposeLeft(Matrix B) {
+        return multiply(this, true, B, false, new Matrix(N, B.N));
+    }
+
+    // return C = A * B^T without building the transpose of B
+    public Matrix timesTransposeRight(Matrix B) {
+        return multiply(this, false, B, true, new Matrix(M, B.M));
+    }
+
+    // C = op(A) * op(B), op transposes the operand by swapping its strides
+    private static Matrix multiply(Matrix A, boolean ta, Matrix B, boolean tb, Matrix C) {
+        int m = ta ? A.N : A.M;
+        int k = ta ? A.M : A.N;
+        int n = tb ? B.M : B.N;
+        if ((tb ? B.N : B.M) != k || C.M != m || C.N != n)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        if (C.overlaps(A) || C.overlaps(B))
+            throw new RuntimeException("Destination matrix overlaps an operand.");
+        if (A.isDirect() || B.isDirect() || C.isDirect()) {
+            //Kernels work on arrays, multiply heap copies of off-heap operands
+            Matrix c = C.isDirect() ? new Matrix(C.M, C.N) : C;
+            multiply(A.isDirect() ? new Matrix(A) : A, ta, B.isDirect() ? new Matrix(B) : B, tb, c);
+            return c == C ? C : C.copyFrom(c);
+        }
+        Gemm.gemm(m, n, k, 1.0,
+                A.data, A.offset, ta ? A.colStride : A.rowStride, ta ? A.rowStride : A.colStride,
+                B.data, B.offset, tb ? B.colStride : B.rowStride, tb ? B.rowStride : B.colStride,
+                0.0, C.data, C.offset, C.rowStride, C.colStride);
+        return C;
+    }
+
+    /**
+     * Sets the tile sizes used by the blocked multiplication kernel.
+     * Defaults are 64, 256 and 1024.
+     *
+     * @param mc rows of A packed per block
+     * @param kc shared dimension packed per block
+     * @param nc columns of B packed per block
+     */
+    public static void setBlockSizes(int mc, int kc, int nc) {
+        Gemm.setBlockSizes(mc, kc, nc);
+    }
+
+    /**
+     * Sets the ForkJoinPool used to split large multiplications across
+     * threads. By default the library creates its own pool on first use.
+     * Passing null keeps every multiplication on the calling thread.
+     *
+     * @param pool pool for parallel multiplications
+     */
+    public static void setParallelPool(ForkJoinPool pool) {
+        Gemm.setPool(pool);
+    }
+
+    /**
+     * Sets the size (rows x cols x inner dimension) from which a
+     * multiplication runs in parallel. Default is 2^20.
+     *
+     * @param threshold number of multiply-adds
+     */
+    public static void setParallelThreshold(long threshold) {
+        Gemm.setParallelThreshold(threshold);
+    }
+
+    /**
+     * Returns true when the SIMD kernels of the Java Vector API are in use.
+     * They need the classes in src-vector and a JVM started with
+     * --add-modules jdk.incubator.vector.
+     *
+     * @return true if kernels are vectorized
+     */
+    public static boolean isVectorized() {
+        return Kernels.INSTANCE.isVectorized();
+    }
+
     // return A*x multiply each elements by number
     public Matrix scale(double factor){
         Matrix A=this;
+        if (A.isContiguous()) {
+            Kernels.INSTANCE.scale(A.data, A.offset, factor, A.M * A.N);
+            return A;
+        }
         for(int i=0;i<A.M;i++){
-            for(int j=0;j<A.N;j++){
-                A.data[i][j]=A.data[i][j]*factor;
+            int a = A.offset + i * A.rowStride;
+            for(int j=0;j<A.N;j++, a += A.colStride){
+                A.set(a, A.get(a)*factor);
             }
         }
         return A;
     }
 
-    // return x = A^-1 b, assuming A is square and has full rank
-    public Matrix solve(Matrix rhs) {
-        if (M != N || rhs.M != N || rhs.N != 1)
+    // A = A + B, no new matrix is created
+    public Matrix plusInPlace(Matrix B) {
+        return axpy(1.0, B);
+    }
+
+    // A = A - B, no new matrix is created
+    public Matrix minusInPlace(Matrix B) {
+        return axpy(-1.0, B);
+    }
+
+    // A = A + alpha*B, no new matrix is created
+    public Matrix axpy(double alpha, Matrix B) {
+        return addInto(alpha, B, this);
+    }
+
+    // A = A .* B, element wise multiplication without a new matrix
+    public Matrix times_hadamardInPlace(Matrix B) {
+        Matrix A = this;
+        if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
+        if (A.isContiguous() && B.isContiguous()) {
+            Kernels.INSTANCE.mul(A.data, A.offset, B.data, B.offset, A.data, A.offset, A.M * A.N);
+            return A;
+        }
+        for (int i = 0; i < M; i++) {
+            int a = A.offset + i * A.rowStride;
+            int b = B.offset + i * B.rowStride;
+            for (int j = 0; j < N; j++, a += A.colStride, b += B.colStride)
+                A.set(a, A.get(a) * B.get(b));
+        }
+        return A;
+    }
+
+    // A = B, copies the values of B into A
+    public Matrix copyFrom(Matrix B) {
+        Matrix A = this;
+        if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
+        if (A.isContiguous() && B.isContiguous()) {
+            System.arraycopy(B.data, B.offset, A.data, A.offset, A.M * A.N);
+            return A;
+        }
+        for (int i = 0; i < M; i++) {
+            int a = A.offset + i * A.rowStride;
+            int b = B.offset + i * B.rowStride;
+            for (int j = 0; j < N; j++, a += A.colStride, b += B.colStride)
+                A.set(a, B.get(b));
+        }
+        return A;
+    }
+
+    // dest = A + B, returns dest
+    public Matrix plusInto(Matrix B, Matrix dest) {
+        return addInto(1.0, B, dest);
+    }
+
+    // dest = A - B, returns dest
+    public Matrix minusInto(Matrix B, Matrix dest) {
+        return addInto(-1.0, B, dest);
+    }
+
+    // dest = A * B, returns dest. dest must not share storage with A or B
+    public Matrix timesInto(Matrix B, Matrix dest) {
+        return multiply(this, false, B, false, dest);
+    }
+
+    // dest = A^T * B, returns dest. dest must not share storage with A or B
+    public Matrix timesTransposeLeftInto(Matrix B, Matrix dest) {
+        return multiply(this, true, B, false, dest);
+    }
+
+    // dest = A * B^T, returns dest. dest must not share storage with A or B
+    public Matrix timesTransposeRightInto(Matrix B, Matrix dest) {
+        return multiply(this, false, B, true, dest);
+    }
+
+    /**
+     * Fused dense layer kernel. In a single pass over the rows of this
+     * matrix computes for every row i
+     * z(i) = (A*x)(i) + b(i), out(i) = f(z(i)) and deriv(i) = df(z(i), out(i)).
+     * If f is null only z is computed and if df is null no derivatives are
+     * computed.
+     *
+     * x can also be a batch with one sample in every column, z, out and
+     * deriv then have as many columns. A*x is computed by the blocked
+     * multiplication and the bias and activation are applied column by
+     * column in a second pass.
+     *
+     * @param x input column vector or batch of input columns
+     * @param b bias column vector
+     * @param z receives A*x + b
+     * @param out receives f(z)
+     * @param deriv receives df(z, f(z))
+     * @param f activation function
+     * @param df derivative of the activation function given z and f(z)
+     */
+    public void denseForward(Matrix x, Matrix b, Matrix z, Matrix out, Matrix deriv,
+            DoubleUnaryOperator f, DoubleBinaryOperator df) {
+        checkDense(M, N, x.M, x.N, b, z, out, deriv, f, df);
+        if (x.N != 1) {
+            multiply(this, false, x, false, z);
+            activate(b, z, out, deriv, f, df);
+            return;
+        }
+        Kernels kernels = Kernels.INSTANCE;
+        boolean unitStride = data != null && x.data != null && colStride == 1 && x.rowStride == 1;
+        for (int i = 0; i < M; i++) {
+            double sum = 0;
+            int a = offset + i * rowStride;
+            if (unitStride) {
+                sum = kernels.dot(data, a, x.data, x.offset, N);
+            } else {
+                int xi = x.offset;
+                for (int p = 0; p < N; p++, a += colStride, xi += x.rowStride)
+                    sum += get(a) * x.get(xi);
+            }
+            double zi = b.get(b.offset + i * b.rowStride) + sum;
+            z.set(z.offset + i * z.rowStride, zi);
+            if (f == null) continue;
+            double oi = f.applyAsDouble(zi);
+            out.set(out.offset + i * out.rowStride, oi);
+            if (df != null)
+                deriv.set(deriv.offset + i * deriv.rowStride, df.applyAsDouble(zi, oi));
+        }
+    }
+
+    /**
+     * Fused dense layer kernel for a sparse input vector, see
+     * denseForward(Matrix, ...). Only the columns of this matrix matching
+     * non-zero inputs are read.
+     *
+     * @param x sparse input column vector
+     * @param b bias column vector
+     * @param z receives A*x + b
+     * @param out receives f(z)
+     * @param deriv receives df(z, f(z))
+     * @param f activation function
+     * @param df derivative of the activation function given z and f(z)
+     */
+    public void denseForward(SparseMatrix x, Matrix b, Matrix z, Matrix out, Matrix deriv,
+            DoubleUnaryOperator f, DoubleBinaryOperator df) {
+        checkDense(M, N, x.M, x.N, b, z, out, deriv, f, df);
+        if (x.N != 1) throw new RuntimeException("Illegal matrix dimensions.");
+        int nnz = x.values.length;
+        for (int i = 0; i < M; i++) {
+            double sum = 0;
+            int a = offset + i * rowStride;
+            for (int k = 0; k < nnz; k++)
+                sum += get(a + x.rowIdx[k] * colStride) * x.values[k];
+            double zi = b.get(b.offset + i * b.rowStride) + sum;
+            z.set(z.offset + i * z.rowStride, zi);
+            if (f == null) continue;
+            double oi = f.applyAsDouble(zi);
+            out.set(out.offset + i * out.rowStride, oi);
+            if (df != null)
+                deriv.set(deriv.offset + i * deriv.rowStride, df.applyAsDouble(zi, oi));
+        }
+    }
+
+    /**
+     * Rank k update A = A + alpha * X * Y^T, the sum of the outer products
+     * of the columns of X and Y, e.g. the weight gradient of a batch. One
+     * blocked multiplication instead of k calls to ger.
+     *
+     * @param alpha scale factor
+     * @param X rows-by-k
+     * @param Y columns-by-k
+     * @return this matrix
+     */
+    public Matrix rankUpdate(double alpha, Matrix X, Matrix Y) {
+        if (X.M != M || Y.M != N || X.N != Y.N) throw new RuntimeException("Illegal matrix dimensions.");
+        if (overlaps(X) || overlaps(Y)) throw new RuntimeException("Destination matrix overlaps an operand.");
+        if (isDirect() || X.isDirect() || Y.isDirect()) {
+            return axpy(alpha, multiply(X, false, Y, true, new Matrix(M, N)));
+        }
+        Gemm.gemm(M, N, X.N, alpha,
+                X.data, X.offset, X.rowStride, X.colStride,
+                Y.data, Y.offset, Y.colStride, Y.rowStride,
+                1.0, data, offset, rowStride, colStride);
+        return this;
+    }
+
+    // A = A + sum of the columns of X, A is a column vector with the rows of X
+    public Matrix plusRowSums(Matrix X) {
+        if (N != 1 || X.M != M) throw new RuntimeException("Illegal matrix dimensions.");
+        for (int i = 0; i < M; i++) {
+            double sum = 0;
+            int x = X.offset + i * X.rowStride;
+            for (int j = 0; j < X.N; j++, x += X.colStride)
+                sum += X.get(x);
+            int a = offset + i * rowStride;
+            set(a, get(a) + sum);
+        }
+        return this;
+    }
+
+    // shapes of the denseForward arguments for a M-by-N weight matrix and a xM-by-xN input
+    static void checkDense(int M, int N, int xM, int xN, Matrix b, Matrix z, Matrix out, Matrix deriv,
+            DoubleUnaryOperator f, DoubleBinaryOperator df) {
+        if (xM != N || xN < 1 || b.M != M || b.N != 1 || z.M != M || z.N != xN
+                || (f != null && (out.M != M || out.N != xN))
+                || (f != null && df != null && (deriv.M != M || deriv.N != xN)))
             throw new RuntimeException("Illegal matrix dimensions.");
+    }
 
-        // create copies of the data
-        Matrix A = new Matrix(this);
-        Matrix b = new Matrix(rhs);
-
-        // Gaussian elimination with partial pivoting
-        for (int i = 0; i < N; i++) {
-
-            // find pivot row and swap
-            int max = i;
-            for (int j = i + 1; j < N; j++)
-                if (Math.abs(A.data[j][i]) > Math.abs(A.data[max][i]))
-                    max = j;
-            A.swap(i, max);
-            b.swap(i, max);
-
-            // singular
-            if (A.data[i][i] == 0.0) throw new RuntimeException("Matrix is singular.");
-
-            // pivot within b
-            for (int j = i + 1; j < N; j++)
-                b.data[j][0] -= b.data[i][0] * A.data[j][i] / A.data[i][i];
-
-            // pivot within A
-            for (int j = i + 1; j < N; j++) {
-                double m = A.data[j][i] / A.data[i][i];
-                for (int k = i+1; k < N; k++) {
-                    A.data[j][k] -= A.data[i][k] * m;
+    // second pass of a batch denseForward: z = z + b, out = f(z), deriv = df(z, out)
+    static void activate(Matrix b, Matrix z, Matrix out, Matrix deriv,
+            DoubleUnaryOperator f, DoubleBinaryOperator df) {
+        boolean d = f != null && df != null;
+        for (int i = 0; i < z.M; i++) {
+            double bi = b.get(b.offset + i * b.rowStride);
+            int zi = z.offset + i * z.rowStride;
+            int oi = f != null ? out.offset + i * out.rowStride : 0;
+            int di = d ? deriv.offset + i * deriv.rowStride : 0;
+            for (int j = 0; j < z.N; j++, zi += z.colStride) {
+                double v = bi + z.get(zi);
+                z.set(zi, v);
+                if (f == null) continue;
+                double o = f.applyAsDouble(v);
+                out.set(oi, o);
+                oi += out.colStride;
+                if (d) {
+                    deriv.set(di, df.applyAsDouble(v, o));
+                    di += deriv.colStride;
                 }
-                A.data[j][i] = 0.0;
             }
         }
+    }
+
+    /**
+     * Rank one update A = A + alpha * x * y^T. x and y are vectors (a row
+     * or a column) with as many elements as rows and columns of A.
+     *
+     * @param alpha scale factor
+     * @param x vector of size rows
+     * @param y vector of size columns
+     * @return this matrix
+     */
+    public Matrix ger(double alpha, Matrix x, Matrix y) {
+        if (x.M * x.N != M || y.M * y.N != N || (x.M != 1 && x.N != 1) || (y.M != 1 && y.N != 1))
+            throw new RuntimeException("Illegal matrix dimensions.");
+        int xs = x.N == 1 ? x.rowStride : x.colStride;
+        int ys = y.N == 1 ? y.rowStride : y.colStride;
+        for (int i = 0, xi = x.offset; i < M; i++, xi += xs) {
+            double axi = alpha * x.get(xi);
+            int a = offset + i * rowStride;
+            int yj = y.offset;
+            for (int j = 0; j < N; j++, a += colStride, yj += ys)
+                set(a, get(a) + axi * y.get(yj));
+        }
+        return this;
+    }
+
+    /**
+     * Rank one update A = A + alpha * x * y^T for a sparse column vector y.
+     * Only the columns of A matching non-zeros of y are changed.
+     *
+     * @param alpha scale factor
+     * @param x vector of size rows
+     * @param y sparse column vector of size columns
+     * @return this matrix
+     */
+    public Matrix ger(double alpha, Matrix x, SparseMatrix y) {
+        if (x.M * x.N != M || y.M != N || y.N != 1 || (x.M != 1 && x.N != 1))
+            throw new RuntimeException("Illegal matrix dimensions.");
+        int xs = x.N == 1 ? x.rowStride : x.colStride;
+        int nnz = y.values.length;
+        for (int i = 0, xi = x.offset; i < M; i++, xi += xs) {
+            double axi = alpha * x.get(xi);
+            int a = offset + i * rowStride;
+            for (int k = 0; k < nnz; k++) {
+                int aj = a + y.rowIdx[k] * colStride;
+                set(aj, get(aj) + axi * y.values[k]);
+            }
+        }
+        return this;
+    }
 
-        // back substitution
-        Matrix x = new Matrix(N, 1);
-        for (int j = N - 1; j >= 0; j--) {
-            double t = 0.0;
-            for (int k = j + 1; k < N; k++)
-                t += A.data[j][k] * x.data[k][0];
-            x.data[j][0] = (b.data[j][0] - t) / A.data[j][j];
+    // dest = A^T, returns dest. dest must not share storage with A
+    public Matrix transposeInto(Matrix dest) {
+        if (dest.M != N || dest.N != M) throw new RuntimeException("Illegal matrix dimensions.");
+        if (dest.overlaps(this)) throw new RuntimeException("Destination matrix overlaps an operand.");
+        for (int i = 0; i < M; i++) {
+            int s = offset + i * rowStride;
+            int d = dest.offset + i * dest.colStride;
+            for (int j = 0; j < N; j++, s += colStride, d += dest.rowStride)
+                dest.set(d, get(s));
         }
-        return x;
-   
+        return dest;
+    }
+
+    // return x = A^-1 b, assuming A is square and has full rank. b may have
+    // several columns; use LUDecomposition to solve repeatedly with one A
+    public Matrix solve(Matrix rhs) {
+        if (M != N || rhs.M != N)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        return new LUDecomposition(this).solve(rhs);
     }
 
     public int getRows(){
@@ -230,14 +724,21 @@ final public class Matrix implements Serializable{
         return this.N;
     }
     public double getValue(int i,int j){
-        return this.data[i-1][j-1];
+        return get(index(i-1, j-1));
     }
     
     public void setValue(int i, int j, double x){
-        this.data[i-1][j-1]=x;
+        set(index(i-1, j-1), x);
     }
+    // returns a copy of the elements as a 2d array
     public double [][] getData(){
-        return this.data;
+        double[][] copy = new double[M][N];
+        for (int i = 0; i < M; i++) {
+            int a = index(i, 0);
+            for (int j = 0; j < N; j++, a += colStride)
+                copy[i][j] = get(a);
+        }
+        return copy;
     }
     public Matrix initMatrix(double value){
         Matrix M=this;
@@ -253,7 +754,7 @@ final public class Matrix implements Serializable{
     public void show() {
         for (int i = 0; i < M; i++) {
             for (int j = 0; j < N; j++) 
-                System.out.printf("%9.4f ", data[i][j]);
+                System.out.printf("%9.4f ", get(index(i, j)));
             System.out.println();
         }
     }
@@ -264,29 +765,71 @@ final public class Matrix implements Serializable{
         String s="";
         for (int i = 0; i < M; i++) {
             for (int j = 0; j < N; j++) 
-                s+=String.format("%9.4f ", data[i][j]);
+                s+=String.format("%9.4f ", get(index(i, j)));
             s+="\n";
         }
         return s;
     }
     
+    /**
+     * Returns a view of rows x cols elements starting at element (i, j),
+     * taking every rowStep-th row and colStep-th column. The view shares
+     * the storage of this matrix.
+     *
+     * @param i first row, 1 based
+     * @param j first column, 1 based
+     * @param rows number of rows of the view
+     * @param cols number of columns of the view
+     * @param rowStep distance between two rows of the view, in rows
+     * @param colStep distance between two columns of the view, in columns
+     * @return view of this matrix
+     */
+    public Matrix view(int i, int j, int rows, int cols, int rowStep, int colStep) {
+        if (rows < 1 || cols < 1 || rowStep < 1 || colStep < 1 || i < 1 || j < 1
+                || i + (rows - 1) * rowStep > M || j + (cols - 1) * colStep > N)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        return new Matrix(this, index(i - 1, j - 1), rows, cols,
+                rowStep * rowStride, colStep * colStride);
+    }
+
+    // view of the rows x cols block starting at element (i, j), 1 based
+    public Matrix view(int i, int j, int rows, int cols) {
+        return view(i, j, rows, cols, 1, 1);
+    }
+
+    // view of row i (1 based) as a 1 x N matrix
+    public Matrix row(int i) {
+        return view(i, 1, 1, N, 1, 1);
+    }
+
+    // view of column j (1 based) as a M x 1 matrix
+    public Matrix column(int j) {
+        return view(1, j, M, 1, 1, 1);
+    }
+
+    // view of the transpose, no element is copied
+    public Matrix transposeView() {
+        return new Matrix(this, offset, N, M, colStride, rowStride);
+    }
+
+    // true if this matrix shares the storage of another one
+    public boolean isView() {
+        return owner != null;
+    }
+
     //Return vector from Matrix. Vector is a column
     public Matrix getVector(int index){
-        
-        Matrix vector=new Matrix(this.getRows(),1);
-        
-        for(int i=0;i<vector.getRows();i++){
-            vector.setValue(i+1, 1, this.getValue(i+1, index));
-        }
-        return vector;
-        
+        //Returns a copy, use column(index) for a view
+        return new Matrix(column(index));
     }
     
     //Set vector in Matrix at index position. Vector is a Column
     public void setVector(Matrix vector,int index){
-        
-        for(int i=0;i<vector.getRows();i++){
-            this.setValue(i+1, index, vector.getValue(i+1, 1));
+        int rows=vector.getRows();
+        if (rows > M || index < 1 || index > N || vector.N < 1) throw new RuntimeException("Illegal matrix dimensions.");
+        //Copied in place, no views, it runs for every sample of a batch
+        for(int i=0, a=index(0, index-1), b=vector.offset;i<rows;i++, a+=rowStride, b+=vector.rowStride){
+            set(a, vector.get(b));
         }
     }
     
@@ -294,9 +837,9 @@ final public class Matrix implements Serializable{
     public double getNorm(){
         
         double norm=0;
-        
-        for(int i=0;i<this.getRows();i++){
-            norm+=Math.pow(this.getValue(i+1, 1), 2);
+        for(int i=0, a=offset;i<M;i++, a+=rowStride){
+            double x=get(a);
+            norm+=x*x;
         }
         return Math.sqrt(norm);
     }
@@ -304,37 +847,37 @@ final public class Matrix implements Serializable{
     //Returns the scalar multiplication of two vectors
     public double scalarMult(Matrix a){
         
+        if (a.M > M) throw new RuntimeException("Illegal matrix dimensions.");
         double scl=0;
-        for(int i=0;i<a.getRows();i++){
-            scl+=this.getValue(i+1, 1)*a.getValue(i+1, 1);
+        for(int i=0, t=offset, b=a.offset;i<a.M;i++, t+=rowStride, b+=a.rowStride){
+            scl+=get(t)*a.get(b);
         }
         return scl;
     }
     
-     /**
+    /**
      * Returns the QR decomposition of a matrix.
-     * The algorithm uses the Gram-Schmidt method
+     * The algorithm uses Householder reflections, see QRDecomposition.
+     * Signs are chosen so that the diagonal of R is not negative.
      * @param Matrix a
-     * @return List. 1 element is the Q matrix and 2 is the R Matrix
+     * @return List. 1 element is the Q matrix and 2 is the R Matrix, both
+     * of the size of a
      */
     public static List<Matrix> qr_decomposition(Matrix a) {
 
+        QRDecomposition dec = new QRDecomposition(a);
+        Matrix qt = dec.getQ();
+        Matrix rt = dec.getR();
         Matrix q = new Matrix(a.getRows(), a.getCols());
         Matrix r = new Matrix(a.getRows(), a.getCols());
 
-        for (int i = 0; i < a.getCols(); i++) {
-            //Compute projections
-            Matrix sum = new Matrix(q.getRows(),1);
-            for (int j = 0; j < i; j++) {
-                double factor=q.getVector(j+1).scalarMult(a.getVector(i+1));
-                r.setValue(j+1, i+1, factor);
-                sum=sum.plus(q.getVector(j+1).scale(factor));
+        for (int i = 0; i < rt.getRows(); i++) {
+            Matrix qi = q.column(i + 1).copyFrom(qt.column(i + 1));
+            Matrix ri = r.row(i + 1).copyFrom(rt.row(i + 1));
+            if (ri.getValue(1, i + 1) < 0) {
+                qi.scale(-1);
+                ri.scale(-1);
             }
-
-            Matrix qi = a.getVector(i + 1).minus(sum);
-            double norm = qi.getNorm();
-            q.setVector(qi.scale(1/norm), i + 1);
-            r.setValue(i+1, i+1, norm);
         }
         
         List<Matrix> qr=new ArrayList<>();
@@ -342,13 +885,17 @@ final public class Matrix implements Serializable{
         qr.add(r);
         
         return qr;
- }   
+    }
     public double getSumItems(){
         
+        if (isContiguous()) {
+            return Kernels.INSTANCE.sum(data, offset, M * N);
+        }
         double sum=0;
-        for(int i=0;i<this.getRows();i++){
-            for(int j=0;j<this.getCols();j++){
-                sum+=this.getValue(i+1, j+1);
+        for(int i=0;i<M;i++){
+            int a = offset + i * rowStride;
+            for(int j=0;j<N;j++, a += colStride){
+                sum+=get(a);
             }
         }
         return sum;
@@ -356,41 +903,45 @@ final public class Matrix implements Serializable{
     
     /**
      * Computes the eigenvalues and eigenvectors of a square and symetrical
-     * matrix. The way eigenvalues and eigenvectors are computed is using the
-     * QR algorithm. Matrix AP holds the QR decomposition and S will have
-     * he eigenvectors.
-     * 1.- A(k)=Q(k)R(k); S(k+1)=S(k)*Q(k)
-     * 2.- A(k+1)=R(k)*Q(k)
-     * 3.- iterate until Q --> Identity Matrix
+     * matrix. The matrix is reduced to tridiagonal form and diagonalized by
+     * implicit shifted QL iterations, see EigenDecomposition.
      * @return  a list of Matrices. the first one is the eigenvalues on the
-     * diagonal of the matrix and the second one is the eigenvectors in the
-     * columns of the Matrix
+     * diagonal of the matrix, from the largest to the smallest, and the
+     * second one is the eigenvectors in the columns of the Matrix
      */
     public List<Matrix> eigenvalues(){
         
-        Matrix ap=new Matrix(this);
-        Matrix error=new Matrix(this.getRows(),this.getCols());
-        Matrix s=Matrix.identity(this.getRows());
-        
-        List<Matrix> qr=new ArrayList<>();
-        double err=1;
-        int i=0;
-        
-        while(err>0.00001 && i<2000){
-            qr=Matrix.qr_decomposition(ap);
-            s=s.times(qr.get(0));
-            err=(Math.abs(error.minus(qr.get(0)).getSumItems())/err)*100;
-            error=qr.get(0);
-            //System.out.print(err+", ");
-            ap=qr.get(1).times(qr.get(0));
-            i++;
-        }
+        EigenDecomposition dec = new EigenDecomposition(this);
         
         List<Matrix> eigen = new ArrayList<>();
-        eigen.add(ap);
-        eigen.add(s);
+        eigen.add(dec.getD());
+        eigen.add(dec.getV());
         
         return eigen;
     }
 
-}
\ No newline at end of file
+    // write the original serialized form
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("M", M);
+        fields.put("N", N);
+        fields.put("data", getData());
+        out.writeFields();
+    }
+
+    // read the original serialized form into flat storage
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        double[][] d = (double[][]) fields.get("data", null);
+        M = fields.get("M", 0);
+        N = fields.get("N", 0);
+        data = new double[M * N];
+        MatrixPool.recordAllocation(M * N);
+        offset = 0;
+        rowStride = N;
+        colStride = 1;
+        for (int i = 0; i < M; i++)
+            System.arraycopy(d[i], 0, data, i * N, N);
+    }
+
+}
@@ -0,0 +1,141 @@
+package Matrix;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates matrices off the Java heap. Elements are carved out of large
+ * direct buffers, so big data sets and weights do not add to the garbage
+ * collector's work and are laid out next to each other in native memory.
+ *
+ * The memory of all matrices of an arena is released at once by close();
+ * using one of its matrices afterwards throws an IllegalStateException.
+ * close() must not be called while another thread still works on the
+ * matrices. Allocation may be done from several threads.
+ *
+ * <pre>
+ * try (MatrixArena arena = new MatrixArena()) {
+ *     Matrix A = arena.allocate(1000, 1000);
+ *     ...
+ * }
+ * </pre>
+ */
+final public class MatrixArena implements AutoCloseable {
+    private static final int DEFAULT_CHUNK = 1 << 20; // doubles per buffer, 8 MB
+    private static final int MAX_DOUBLES = Integer.MAX_VALUE / Double.BYTES; // largest direct buffer
+
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final List<Matrix> matrices = new ArrayList<>();
+    private DoubleBuffer current;  // buffer new matrices are taken from
+    private int used;              // doubles taken from current
+    private long allocated;        // doubles handed out
+    private boolean closed;
+
+    public MatrixArena() {
+        this(DEFAULT_CHUNK);
+    }
+
+    // chunkSize is the number of doubles reserved at a time
+    public MatrixArena(int chunkSize) {
+        if (chunkSize < 1 || chunkSize > MAX_DOUBLES) throw new IllegalArgumentException("Illegal chunk size.");
+        this.chunkSize = chunkSize;
+    }
+
+    // create M-by-N matrix of 0's stored off-heap
+    public synchronized Matrix allocate(int M, int N) {
+        if (closed) throw new IllegalStateException("Arena is closed.");
+        if (M < 1 || N < 1) throw new RuntimeException("Illegal matrix dimensions.");
+        long size = (long) M * N;
+        if (size > MAX_DOUBLES) throw new RuntimeException("Illegal matrix dimensions.");
+        DoubleBuffer buffer;
+        int offset;
+        if (size > chunkSize) {
+            //Large matrices get a buffer of their own
+            buffer = newChunk((int) size);
+            offset = 0;
+        } else {
+            if (current == null || used + size > chunkSize) {
+                current = newChunk(chunkSize);
+                used = 0;
+            }
+            buffer = current;
+            offset = used;
+            used += size;
+        }
+        allocated += size;
+        Matrix A = new Matrix(M, N, buffer, offset);
+        matrices.add(A);
+        return A;
+    }
+
+    // return an off-heap copy of A
+    public Matrix copyOf(Matrix A) {
+        return allocate(A.getRows(), A.getCols()).copyFrom(A);
+    }
+
+    // bytes taken by the matrices of this arena
+    public synchronized long getAllocatedBytes() {
+        return allocated * Double.BYTES;
+    }
+
+    // bytes of native memory reserved by this arena
+    public synchronized long getReservedBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks)
+            bytes += chunk.capacity();
+        return bytes;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // release the memory of all matrices allocated by this arena
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (Matrix A : matrices)
+            A.release();
+        matrices.clear();
+        for (ByteBuffer chunk : chunks)
+            free(chunk);
+        chunks.clear();
+        current = null;
+    }
+
+    private DoubleBuffer newChunk(int doubles) {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(doubles * Double.BYTES).order(ByteOrder.nativeOrder());
+        chunks.add(chunk);
+        return chunk.asDoubleBuffer();
+    }
+
+    // free native memory now instead of when the buffer is garbage collected
+    private static void free(ByteBuffer buffer) {
+        try {
+            //Java 9 and newer
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(f.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //Not available, try the Java 8 cleaner
+        }
+        try {
+            Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object c = cleaner.invoke(buffer);
+            if (c != null) c.getClass().getMethod("clean").invoke(c);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //Left to the garbage collector
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package Matrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Lazy element wise matrix expression. Operations only record a node, the
+ * whole expression is computed by evalInto in a single pass over the
+ * elements, without intermediate matrices:
+ *
+ * <pre>
+ * Matrix.expr(w).minus(Matrix.expr(d).mul(s)).evalInto(w);   // w = w - s*d
+ * </pre>
+ *
+ * Elements are computed by blocks of BLOCK consecutive elements: every node
+ * of the expression is evaluated on the block into a small scratch buffer
+ * that stays in the cache, then the result is written to the destination.
+ *
+ * Several expressions can be evaluated together into several destinations
+ * with the static evalInto. A node shared by them is computed once per
+ * block, e.g. the new deltas of a gradient descent step which go both to
+ * the deltas and to the weights.
+ *
+ * A destination may be one of the operands, all the operands of a block are
+ * read before it is written. It must not overlap an operand in any other
+ * way. Expressions are immutable and can be evaluated again, e.g. after the
+ * operand matrices have changed. An update run over and over can be
+ * compiled once into a Program, which then evaluates without allocating.
+ */
+final public class MatrixExpression {
+    private static final int BLOCK = 256; // elements computed per pass of the nodes
+
+    private static final int LEAF = 0, PLUS = 1, MINUS = 2, MUL = 3, DIV = 4, SCALE = 5, ADD = 6, MAP = 7;
+
+    // per thread scratch buffers, one per node
+    private static final ThreadLocal<List<double[]>> SCRATCH = ThreadLocal.withInitial(ArrayList::new);
+
+    private final int op;
+    private final int M, N;
+    private final Matrix A;                  // operand of a leaf
+    private final MatrixExpression left, right;
+    private final double scalar;
+    private final DoubleSupplier factor;     // scalar read when evaluated, null if fixed
+    private final DoubleUnaryOperator f;
+
+    private MatrixExpression(int op, int M, int N, Matrix A, MatrixExpression left, MatrixExpression right,
+            double scalar, DoubleSupplier factor, DoubleUnaryOperator f) {
+        this.op = op;
+        this.M = M;
+        this.N = N;
+        this.A = A;
+        this.left = left;
+        this.right = right;
+        this.scalar = scalar;
+        this.factor = factor;
+        this.f = f;
+    }
+
+    // expression with the value of A, see Matrix.expr
+    public static MatrixExpression of(Matrix A) {
+        return new MatrixExpression(LEAF, A.M, A.N, A, null, null, 0, null, null);
+    }
+
+    private MatrixExpression binary(int op, MatrixExpression B) {
+        if (B.M != M || B.N != N) throw new RuntimeException("Illegal matrix dimensions.");
+        return new MatrixExpression(op, M, N, null, this, B, 0, null, null);
+    }
+
+    private MatrixExpression unary(int op, double scalar, DoubleSupplier factor, DoubleUnaryOperator f) {
+        return new MatrixExpression(op, M, N, null, this, null, scalar, factor, f);
+    }
+
+    public MatrixExpression plus(MatrixExpression B) {
+        return binary(PLUS, B);
+    }
+
+    public MatrixExpression plus(Matrix B) {
+        return binary(PLUS, of(B));
+    }
+
+    public MatrixExpression minus(MatrixExpression B) {
+        return binary(MINUS, B);
+    }
+
+    public MatrixExpression minus(Matrix B) {
+        return binary(MINUS, of(B));
+    }
+
+    // element wise product
+    public MatrixExpression mul(MatrixExpression B) {
+        return binary(MUL, B);
+    }
+
+    // element wise product
+    public MatrixExpression mul(Matrix B) {
+        return binary(MUL, of(B));
+    }
+
+    // multiply every element by factor
+    public MatrixExpression mul(double factor) {
+        return unary(SCALE, factor, null, null);
+    }
+
+    // multiply every element by the value of factor at evaluation time
+    public MatrixExpression mul(DoubleSupplier factor) {
+        return unary(SCALE, 0, factor, null);
+    }
+
+    // element wise division
+    public MatrixExpression div(MatrixExpression B) {
+        return binary(DIV, B);
+    }
+
+    // element wise division
+    public MatrixExpression div(Matrix B) {
+        return binary(DIV, of(B));
+    }
+
+    // add value to every element
+    public MatrixExpression plus(double value) {
+        return unary(ADD, value, null, null);
+    }
+
+    // apply f to every element
+    public MatrixExpression map(DoubleUnaryOperator f) {
+        return unary(MAP, 0, null, f);
+    }
+
+    public int getRows() {
+        return M;
+    }
+
+    public int getCols() {
+        return N;
+    }
+
+    // evaluate into a new matrix
+    public Matrix eval() {
+        return evalInto(new Matrix(M, N));
+    }
+
+    // evaluate into dest, returns dest
+    public Matrix evalInto(Matrix dest) {
+        evalInto(new Matrix[]{dest}, new MatrixExpression[]{this});
+        return dest;
+    }
+
+    /**
+     * Evaluates every expression into its destination in a single pass.
+     * All the expressions must have the size of the destinations.
+     *
+     * @param dest destination matrices
+     * @param exprs exprs[k] is written into dest[k]
+     */
+    public static void evalInto(Matrix[] dest, MatrixExpression[] exprs) {
+        compile(dest, exprs).run();
+    }
+
+    /**
+     * Prepares the evaluation of the expressions into the destinations once,
+     * for code running the same update many times, e.g. every training step.
+     * Running the program evaluates the expressions with the current
+     * values of the operands and of the factors given as suppliers, and
+     * allocates nothing.
+     *
+     * @param dest destination matrices
+     * @param exprs exprs[k] is written into dest[k]
+     * @return program to run, by one thread at a time
+     */
+    public static Program compile(Matrix[] dest, MatrixExpression[] exprs) {
+        if (dest.length != exprs.length || dest.length == 0)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        int M = dest[0].M;
+        int N = dest[0].N;
+
+        //Nodes in evaluation order, children before parents, shared nodes once
+        List<MatrixExpression> nodes = new ArrayList<>();
+        for (int k = 0; k < exprs.length; k++) {
+            if (dest[k].M != M || dest[k].N != N || exprs[k].M != M || exprs[k].N != N)
+                throw new RuntimeException("Illegal matrix dimensions.");
+            exprs[k].collect(nodes);
+        }
+        int n = nodes.size();
+        int[] l = new int[n];
+        int[] r = new int[n];
+        boolean flat = true; // all contiguous: elements are walked as one row
+        for (int i = 0; i < n; i++) {
+            MatrixExpression e = nodes.get(i);
+            l[i] = e.left != null ? indexOf(nodes, e.left) : -1;
+            r[i] = e.right != null ? indexOf(nodes, e.right) : -1;
+            if (e.op == LEAF) {
+                flat &= e.A.isContiguous();
+                for (Matrix D : dest)
+                    if (D.overlaps(e.A) && !sameLayout(D, e.A))
+                        throw new RuntimeException("Destination overlaps an operand.");
+            }
+        }
+        int[] root = new int[dest.length];
+        for (int k = 0; k < dest.length; k++) {
+            root[k] = indexOf(nodes, exprs[k]);
+            flat &= dest[k].isContiguous();
+        }
+        return new Program(nodes.toArray(new MatrixExpression[n]), l, r, dest.clone(), root, flat);
+    }
+
+    /**
+     * Compiled evaluation of expressions into destinations, see compile.
+     */
+    public static final class Program {
+        private final MatrixExpression[] nodes;
+        private final int[] l, r;       // children of the nodes, -1 if none
+        private final Matrix[] dest;
+        private final int[] root;       // node written into dest[k]
+        private final boolean flat;
+        private final double[] scalars; // factors of the nodes for the current run
+        private final double[][] arr;   // values of node i start at arr[i][off[i]]
+        private final int[] off;
+
+        private Program(MatrixExpression[] nodes, int[] l, int[] r, Matrix[] dest, int[] root, boolean flat) {
+            this.nodes = nodes;
+            this.l = l;
+            this.r = r;
+            this.dest = dest;
+            this.root = root;
+            this.flat = flat;
+            this.scalars = new double[nodes.length];
+            this.arr = new double[nodes.length][];
+            this.off = new int[nodes.length];
+        }
+
+        // evaluate the expressions into their destinations
+        public void run() {
+            int n = nodes.length;
+            for (int i = 0; i < n; i++)
+                scalars[i] = nodes[i].factor != null ? nodes[i].factor.getAsDouble() : nodes[i].scalar;
+            List<double[]> scratch = SCRATCH.get();
+            while (scratch.size() < n)
+                scratch.add(new double[BLOCK]);
+
+            int M = dest[0].M;
+            int N = dest[0].N;
+            int rows = flat ? 1 : M;
+            int cols = flat ? M * N : N;
+            for (int row = 0; row < rows; row++) {
+                for (int c0 = 0; c0 < cols; c0 += BLOCK) {
+                    int len = Math.min(BLOCK, cols - c0);
+                    for (int i = 0; i < n; i++) {
+                        MatrixExpression e = nodes[i];
+                        double[] out = scratch.get(i);
+                        if (e.op == LEAF) {
+                            Matrix X = e.A;
+                            int x = flat ? X.offset + c0 : X.index(row, c0);
+                            if (X.data != null && (flat || X.colStride == 1) && !isRoot(root, i)) {
+                                arr[i] = X.data; //read in place
+                                off[i] = x;
+                            } else {
+                                for (int j = 0; j < len; j++, x += flat ? 1 : X.colStride)
+                                    out[j] = X.get(x);
+                                arr[i] = out;
+                                off[i] = 0;
+                            }
+                            continue;
+                        }
+                        double[] a = arr[l[i]];
+                        int ao = off[l[i]];
+                        double[] b = r[i] >= 0 ? arr[r[i]] : null;
+                        int bo = r[i] >= 0 ? off[r[i]] : 0;
+                        double sc = scalars[i];
+                        switch (e.op) {
+                            case PLUS:
+                                for (int j = 0; j < len; j++)
+                                    out[j] = a[ao + j] + b[bo + j];
+                                break;
+                            case MINUS:
+                                for (int j = 0; j < len; j++)
+                                    out[j] = a[ao + j] - b[bo + j];
+                                break;
+                            case MUL:
+                                for (int j = 0; j < len; j++)
+                                    out[j] = a[ao + j] * b[bo + j];
+                                break;
+                            case DIV:
+                                for (int j = 0; j < len; j++)
+                                    out[j] = a[ao + j] / b[bo + j];
+                                break;
+                            case SCALE:
+                                for (int j = 0; j < len; j++)
+                                    out[j] = a[ao + j] * sc;
+                                break;
+                            case ADD:
+                                for (int j = 0; j < len; j++)
+                                    out[j] = a[ao + j] + sc;
+                                break;
+                            default:
+                                for (int j = 0; j < len; j++)
+                                    out[j] = e.f.applyAsDouble(a[ao + j]);
+                                break;
+                        }
+                        arr[i] = out;
+                        off[i] = 0;
+                    }
+                    //All the nodes of the block are computed, write the results
+                    for (int k = 0; k < dest.length; k++) {
+                        Matrix D = dest[k];
+                        double[] v = arr[root[k]];
+                        int d = flat ? D.offset + c0 : D.index(row, c0);
+                        if (D.data != null && (flat || D.colStride == 1)) {
+                            System.arraycopy(v, 0, D.data, d, len);
+                        } else {
+                            for (int j = 0; j < len; j++, d += flat ? 1 : D.colStride)
+                                D.set(d, v[j]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // add the nodes of this expression not in the list yet, children first
+    private void collect(List<MatrixExpression> nodes) {
+        if (indexOf(nodes, this) >= 0) return;
+        if (left != null) left.collect(nodes);
+        if (right != null) right.collect(nodes);
+        nodes.add(this);
+    }
+
+    private static int indexOf(List<MatrixExpression> nodes, MatrixExpression e) {
+        for (int i = 0; i < nodes.size(); i++)
+            if (nodes.get(i) == e) return i;
+        return -1;
+    }
+
+    // a root leaf is copied, its storage may be written before it is read
+    private static boolean isRoot(int[] root, int i) {
+        for (int k : root)
+            if (k == i) return true;
+        return false;
+    }
+
+    private static boolean sameLayout(Matrix A, Matrix B) {
+        return A.offset == B.offset && A.rowStride == B.rowStride && A.colStride == B.colStride;
+    }
+}
@@ -0,0 +1,201 @@
+package Matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per thread pool of temporary matrices, keyed by shape. Code that needs a
+ * scratch matrix for one sample or one batch borrows it and releases it
+ * when done, so training loops reuse the same few matrices instead of
+ * allocating new ones for every sample.
+ *
+ * <pre>
+ * Matrix t = MatrixPool.borrow(rows, cols);
+ * ...
+ * MatrixPool.release(t);
+ * </pre>
+ *
+ * or with a scope releasing everything borrowed through it:
+ *
+ * <pre>
+ * try (MatrixPool.Scope scope = MatrixPool.scope()) {
+ *     Matrix t = scope.borrow(rows, cols);
+ *     ...
+ * }
+ * </pre>
+ *
+ * A released matrix must not be used anymore. Every thread has its own
+ * pool, a matrix should be released by the thread that borrowed it.
+ *
+ * The pool also counts the matrices allocated on the heap by the library
+ * (getAllocations, getAllocatedBytes), to measure allocation rates. These
+ * counters are off unless the JVM is started with the system property
+ * matrix.countAllocations=true, so Matrix constructors pay nothing for them.
+ */
+final public class MatrixPool {
+    private static final int MAX_FREE = 32; // kept matrices per shape
+
+    //Read once, the JIT drops recordAllocation when counting is off
+    private static final boolean COUNT_ALLOCATIONS = Boolean.getBoolean("matrix.countAllocations");
+
+    private static final LongAdder allocations = new LongAdder();
+    private static final LongAdder allocatedBytes = new LongAdder();
+    private static final LongAdder borrows = new LongAdder();
+    private static final LongAdder reuses = new LongAdder();
+
+    private static final ThreadLocal<Shelves> FREE = new ThreadLocal<Shelves>() {
+        @Override
+        protected Shelves initialValue() {
+            return new Shelves();
+        }
+    };
+
+    private MatrixPool() {
+    }
+
+    // called for every heap matrix allocated
+    static void recordAllocation(int elements) {
+        if (!COUNT_ALLOCATIONS) return;
+        allocations.increment();
+        allocatedBytes.add((long) elements * Double.BYTES);
+    }
+
+    // return a M-by-N matrix of 0's, reused if one was released
+    public static Matrix borrow(int M, int N) {
+        borrows.increment();
+        Matrix A = FREE.get().pop(M, N);
+        if (A == null) return new Matrix(M, N);
+        reuses.increment();
+        Arrays.fill(A.data, 0.0);
+        return A;
+    }
+
+    // give back a borrowed matrix, views and off-heap matrices are ignored
+    public static void release(Matrix A) {
+        if (A == null || A.isView() || A.isDirect()) return;
+        FREE.get().push(A);
+    }
+
+    // drop the matrices kept for the calling thread
+    public static void clear() {
+        FREE.remove();
+    }
+
+    // open a scope releasing all the matrices borrowed through it on close
+    public static Scope scope() {
+        return new Scope();
+    }
+
+    // true if getAllocations and getAllocatedBytes are counted
+    public static boolean isCountingAllocations() {
+        return COUNT_ALLOCATIONS;
+    }
+
+    // heap matrices allocated since start or the last resetCounters, 0 unless counting
+    public static long getAllocations() {
+        return allocations.sum();
+    }
+
+    // bytes of the heap matrices allocated since start or the last resetCounters, 0 unless counting
+    public static long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    // borrow calls since start or the last resetCounters
+    public static long getBorrows() {
+        return borrows.sum();
+    }
+
+    // borrow calls served with a released matrix
+    public static long getReuses() {
+        return reuses.sum();
+    }
+
+    public static void resetCounters() {
+        allocations.reset();
+        allocatedBytes.reset();
+        borrows.reset();
+        reuses.reset();
+    }
+
+    // free matrices of one thread, open addressing on the shape
+    private static final class Shelves {
+        private long[] keys = new long[16];  // 0 marks an empty slot
+        private Matrix[][] stacks = new Matrix[16][];
+        private int[] sizes = new int[16];
+        private int used;
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int h = (int) (key ^ (key >>> 29)) * 0x9E3779B9;
+            int i = (h ^ (h >>> 16)) & mask;
+            while (keys[i] != 0 && keys[i] != key)
+                i = (i + 1) & mask;
+            return i;
+        }
+
+        Matrix pop(int M, int N) {
+            int i = slot(((long) M << 32) | N);
+            if (sizes[i] == 0) return null;
+            Matrix A = stacks[i][--sizes[i]];
+            stacks[i][sizes[i]] = null;
+            return A;
+        }
+
+        void push(Matrix A) {
+            long key = ((long) A.M << 32) | A.N;
+            int i = slot(key);
+            if (keys[i] == 0) {
+                if (2 * (used + 1) > keys.length) {
+                    grow();
+                    i = slot(key);
+                }
+                keys[i] = key;
+                stacks[i] = new Matrix[MAX_FREE];
+                used++;
+            }
+            if (sizes[i] < MAX_FREE) stacks[i][sizes[i]++] = A;
+        }
+
+        private void grow() {
+            long[] k = keys;
+            Matrix[][] st = stacks;
+            int[] sz = sizes;
+            keys = new long[k.length * 2];
+            stacks = new Matrix[k.length * 2][];
+            sizes = new int[k.length * 2];
+            for (int j = 0; j < k.length; j++) {
+                if (k[j] == 0) continue;
+                int i = slot(k[j]);
+                keys[i] = k[j];
+                stacks[i] = st[j];
+                sizes[i] = sz[j];
+            }
+        }
+    }
+
+    /**
+     * Matrices borrowed through a scope are released when it is closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final List<Matrix> borrowed = new ArrayList<>();
+
+        private Scope() {
+        }
+
+        public Matrix borrow(int M, int N) {
+            Matrix A = MatrixPool.borrow(M, N);
+            borrowed.add(A);
+            return A;
+        }
+
+        @Override
+        public void close() {
+            for (Matrix A : borrowed)
+                release(A);
+            borrowed.clear();
+        }
+    }
+}
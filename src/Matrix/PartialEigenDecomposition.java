@@ -0,0 +1,115 @@
+package Matrix;
+
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * Leading k eigenvalues and eigenvectors of a symmetric positive
+ * semidefinite matrix, e.g. a covariance matrix for PCA, by randomized
+ * subspace iteration.
+ *
+ * A block of k + oversampling random vectors is multiplied by A a few
+ * times, orthonormalizing in between, and A is diagonalized on the
+ * subspace it spans (Rayleigh-Ritz). Work is a handful of products of A
+ * with an n-by-(k + oversampling) block plus O(n*k^2) for the
+ * orthonormalization, instead of O(n^3) for the whole spectrum.
+ *
+ * The matrix can be given explicitly, as a function computing A*X for a
+ * block X, or as a data set whose covariance matrix is never formed.
+ */
+final public class PartialEigenDecomposition {
+    private static final int OVERSAMPLING = 10;
+    private static final int ITERATIONS = 4;
+    private static final long SEED = 1;
+
+    private final double[] values; // k eigenvalues, largest first
+    private final Matrix V;        // n-by-k eigenvectors in the columns
+
+    // top k eigenpairs of the symmetric matrix A
+    public PartialEigenDecomposition(Matrix A, int k) {
+        this(A::times, A.getRows(), k, OVERSAMPLING, ITERATIONS, SEED);
+    }
+
+    /**
+     * Top k eigenpairs of the symmetric n-by-n matrix A given by its
+     * product with a block of vectors.
+     *
+     * @param op returns A*X for an n-by-l matrix X
+     * @param n size of A
+     * @param k number of eigenpairs
+     * @param oversampling extra vectors in the block, 5 to 10 is usual
+     * @param iterations power iterations, more sharpen slowly decaying spectra
+     * @param seed seed of the random start block
+     */
+    public PartialEigenDecomposition(UnaryOperator<Matrix> op, int n, int k, int oversampling,
+            int iterations, long seed) {
+        if (k < 1 || k > n || oversampling < 0 || iterations < 0)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        int l = Math.min(n, k + oversampling);
+
+        Random random = new Random(seed);
+        Matrix Y = new Matrix(n, l);
+        for (int i = 0; i < Y.data.length; i++)
+            Y.data[i] = random.nextGaussian();
+
+        Matrix Q = new QRDecomposition(op.apply(Y)).getQ();
+        for (int i = 0; i < iterations; i++)
+            Q = new QRDecomposition(op.apply(Q)).getQ();
+
+        //Rayleigh-Ritz on the subspace spanned by Q
+        EigenDecomposition dec = new EigenDecomposition(Q.timesTransposeLeft(op.apply(Q)));
+        double[] d = dec.getEigenvalues();
+        values = new double[k];
+        System.arraycopy(d, 0, values, 0, k);
+        V = Q.times(dec.getV().view(1, 1, l, k));
+    }
+
+    /**
+     * Top k principal components of a data set with one sample in every
+     * column. The eigenpairs are those of the covariance matrix of the
+     * samples, which is only applied as Dc*(Dc^T*X)/(m-1), Dc being the
+     * centered data.
+     *
+     * @param data n-by-m matrix, m samples of n features
+     * @param k number of components
+     * @return eigenpairs of the covariance matrix
+     */
+    public static PartialEigenDecomposition ofData(Matrix data, int k) {
+        int n = data.getRows();
+        int m = data.getCols();
+        if (m < 2) throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix mean = new Matrix(n, 1);
+        for (int j = 1; j <= m; j++)
+            mean.plusInPlace(data.column(j));
+        mean.scale(1.0 / m);
+        Matrix ones = new Matrix(m, 1);
+        for (int i = 0; i < m; i++)
+            ones.data[i] = 1;
+
+        UnaryOperator<Matrix> cov = X -> {
+            //Z = Dc^T*X = D^T*X - 1*(mean^T*X)
+            Matrix Z = data.timesTransposeLeft(X);
+            Z.minusInPlace(ones.times(mean.timesTransposeLeft(X)));
+            //Dc*Z = D*Z - mean*(1^T*Z)
+            Matrix C = data.times(Z);
+            C.minusInPlace(mean.times(ones.timesTransposeLeft(Z)));
+            return C.scale(1.0 / (m - 1));
+        };
+        return new PartialEigenDecomposition(cov, n, k, OVERSAMPLING, ITERATIONS, SEED);
+    }
+
+    // eigenvalues from the largest down
+    public double[] getEigenvalues() {
+        return values.clone();
+    }
+
+    // n-by-k matrix with the eigenvectors in its columns
+    public Matrix getV() {
+        return new Matrix(V);
+    }
+
+    // eigenvector of the i-th largest eigenvalue (1 based) as a column
+    public Matrix getEigenvector(int i) {
+        return V.getVector(i);
+    }
+}
@@ -0,0 +1,210 @@
+package Matrix;
+
+/**
+ * QR decomposition A = Q*R of an m-by-n matrix by Householder reflections.
+ *
+ * The factorization is computed in place on a copy of A. R is left on and
+ * above the diagonal, the Householder vectors below it (compact form, the
+ * leading 1 of every vector is implicit) with their scale factors in tau.
+ * Q is only built on request; Q^T*B and Q*B are applied from the
+ * reflectors. Columns are processed in panels: a panel is factored one
+ * column at a time and its reflectors are then applied to the rest of the
+ * matrix at once as I - V*T*V^T, which runs on the blocked multiplication.
+ */
+final public class QRDecomposition {
+    private static final int BLOCK = 32; // columns per panel
+
+    private final int m;        // rows of A
+    private final int n;        // columns of A
+    private final Matrix qr;    // R and Householder vectors
+    private final double[] tau; // scale factors of the reflectors
+
+    // compute the QR decomposition of A, A is not modified
+    public QRDecomposition(Matrix A) {
+        m = A.getRows();
+        n = A.getCols();
+        qr = new Matrix(A);
+        tau = new double[Math.min(m, n)];
+        double[] a = qr.data;
+        double[] w = new double[n];
+        int p = tau.length;
+        for (int k = 0; k < p; k += BLOCK) {
+            int kb = Math.min(BLOCK, p - k);
+            for (int j = k; j < k + kb; j++) {
+                tau[j] = householder(a, j);
+                applyReflector(a, j, j + 1, k + kb, w);
+            }
+            if (k + kb < n) {
+                updateTrailing(k, kb);
+            }
+        }
+    }
+
+    // reflector annihilating column j below the diagonal, returns tau
+    private double householder(double[] a, int j) {
+        double xnorm = 0;
+        for (int i = j + 1; i < m; i++)
+            xnorm += a[i * n + j] * a[i * n + j];
+        if (xnorm == 0) return 0;
+        xnorm = Math.sqrt(xnorm);
+        double alpha = a[j * n + j];
+        double beta = -Math.copySign(Math.hypot(alpha, xnorm), alpha);
+        double s = 1 / (alpha - beta);
+        for (int i = j + 1; i < m; i++)
+            a[i * n + j] *= s;
+        a[j * n + j] = beta;
+        return (beta - alpha) / beta;
+    }
+
+    // apply reflector j to columns from..to-1 of rows j..m-1
+    private void applyReflector(double[] a, int j, int from, int to, double[] w) {
+        double t = tau[j];
+        if (t == 0 || from >= to) return;
+        //w = v^T * A, row by row for the row-major storage
+        System.arraycopy(a, j * n + from, w, from, to - from);
+        for (int i = j + 1; i < m; i++) {
+            double v = a[i * n + j];
+            for (int c = from, r = i * n + from; c < to; c++, r++)
+                w[c] += v * a[r];
+        }
+        //A = A - tau * v * w
+        for (int c = from, r = j * n + from; c < to; c++, r++)
+            a[r] -= t * w[c];
+        for (int i = j + 1; i < m; i++) {
+            double v = t * a[i * n + j];
+            for (int c = from, r = i * n + from; c < to; c++, r++)
+                a[r] -= v * w[c];
+        }
+    }
+
+    // apply the reflectors of panel k..k+kb-1 to the columns after it
+    private void updateTrailing(int k, int kb) {
+        int rows = m - k;
+        //Explicit V with the implicit unit diagonal and zeros above it
+        Matrix V = new Matrix(rows, kb);
+        for (int j = 0; j < kb; j++) {
+            V.data[j * kb + j] = 1;
+            for (int i = j + 1; i < rows; i++)
+                V.data[i * kb + j] = qr.data[(k + i) * n + k + j];
+        }
+        //Upper triangular T with H(k)...H(k+kb-1) = I - V*T*V^T
+        Matrix T = new Matrix(kb, kb);
+        for (int j = 0; j < kb; j++) {
+            double t = tau[k + j];
+            T.data[j * kb + j] = t;
+            if (t == 0) continue;
+            for (int i = 0; i < j; i++) {
+                //(V^T v_j)(i), v_j is zero above row j
+                double s = 0;
+                for (int r = j; r < rows; r++)
+                    s += V.data[r * kb + i] * V.data[r * kb + j];
+                T.data[i * kb + j] = -t * s;
+            }
+            //T(0:j, j) = T(0:j, 0:j) * T(0:j, j)
+            for (int i = 0; i < j; i++) {
+                double s = 0;
+                for (int c = i; c < j; c++)
+                    s += T.data[i * kb + c] * T.data[c * kb + j];
+                T.data[i * kb + j] = s;
+            }
+        }
+        //C = C - V * T^T * V^T * C
+        Matrix C = qr.view(k + 1, k + kb + 1, rows, n - k - kb);
+        Matrix W = V.timesTransposeLeft(C);
+        C.minusInPlace(V.times(T.timesTransposeLeft(W)));
+    }
+
+    // true if R, and so A, has full column rank
+    public boolean isFullRank() {
+        for (int j = 0; j < tau.length; j++)
+            if (qr.data[j * n + j] == 0) return false;
+        return tau.length == n;
+    }
+
+    // return the min(m,n)-by-n upper triangular factor R
+    public Matrix getR() {
+        int p = tau.length;
+        Matrix R = new Matrix(p, n);
+        for (int i = 0; i < p; i++)
+            System.arraycopy(qr.data, i * n + i, R.data, i * n + i, n - i);
+        return R;
+    }
+
+    // return the m-by-min(m,n) factor Q with orthonormal columns
+    public Matrix getQ() {
+        int p = tau.length;
+        Matrix Q = new Matrix(m, p);
+        for (int i = 0; i < p; i++)
+            Q.data[i * p + i] = 1;
+        double[] w = new double[p];
+        for (int j = p - 1; j >= 0; j--)
+            reflect(j, Q, j, w);
+        return Q;
+    }
+
+    // return Q^T * B, B has m rows
+    public Matrix applyQTranspose(Matrix B) {
+        if (B.getRows() != m) throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix C = new Matrix(B);
+        double[] w = new double[C.N];
+        for (int j = 0; j < tau.length; j++)
+            reflect(j, C, 0, w);
+        return C;
+    }
+
+    // return Q * B, B has m rows
+    public Matrix applyQ(Matrix B) {
+        if (B.getRows() != m) throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix C = new Matrix(B);
+        double[] w = new double[C.N];
+        for (int j = tau.length - 1; j >= 0; j--)
+            reflect(j, C, 0, w);
+        return C;
+    }
+
+    // apply reflector j to columns from.. of rows j..m-1 of contiguous B
+    private void reflect(int j, Matrix B, int from, double[] w) {
+        double t = tau[j];
+        if (t == 0) return;
+        int cols = B.N;
+        double[] b = B.data;
+        System.arraycopy(b, j * cols + from, w, from, cols - from);
+        for (int i = j + 1; i < m; i++) {
+            double v = qr.data[i * n + j];
+            for (int c = from, r = i * cols + from; c < cols; c++, r++)
+                w[c] += v * b[r];
+        }
+        for (int c = from, r = j * cols + from; c < cols; c++, r++)
+            b[r] -= t * w[c];
+        for (int i = j + 1; i < m; i++) {
+            double v = t * qr.data[i * n + j];
+            for (int c = from, r = i * cols + from; c < cols; c++, r++)
+                b[r] -= v * w[c];
+        }
+    }
+
+    /**
+     * Least squares solution of A*X = B, X minimizes the norm of A*X - B.
+     * Needs m &gt;= n and A of full column rank.
+     *
+     * @param B right hand sides, m rows
+     * @return n-by-B.cols solution
+     */
+    public Matrix solve(Matrix B) {
+        if (B.getRows() != m || m < n) throw new RuntimeException("Illegal matrix dimensions.");
+        if (!isFullRank()) throw new RuntimeException("Matrix is rank deficient.");
+        Matrix Y = applyQTranspose(B);
+        int nb = Y.N;
+        Matrix X = new Matrix(n, nb);
+        //Back substitution R*X = (Q^T*B)(0:n)
+        for (int i = n - 1; i >= 0; i--) {
+            for (int c = 0; c < nb; c++) {
+                double s = Y.data[i * nb + c];
+                for (int k = i + 1; k < n; k++)
+                    s -= qr.data[i * n + k] * X.data[k * nb + c];
+                X.data[i * nb + c] = s / qr.data[i * n + i];
+            }
+        }
+        return X;
+    }
+}
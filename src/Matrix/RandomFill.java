@@ -0,0 +1,100 @@
+package Matrix;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Seeded random initialization of matrix storage.
+ *
+ * The array is cut in blocks of BLOCK elements and every block draws from
+ * its own SplittableRandom stream, split from the seed in block order. The
+ * values only depend on the seed and the array length, so blocks can be
+ * filled by any number of threads (the multiplication pool for large
+ * arrays) with identical results.
+ */
+final class RandomFill extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BLOCK = 1 << 12;      // elements per random stream
+    private static final int PARALLEL = 1 << 16;   // elements to use the pool
+
+    private final double[] a;
+    private final SplittableRandom[] streams;
+    private final boolean gaussian;
+    private final double scale, shift;
+    private final int b0, b1;                      // blocks filled by this task
+
+    private RandomFill(double[] a, SplittableRandom[] streams, boolean gaussian, double scale, double shift,
+            int b0, int b1) {
+        this.a = a;
+        this.streams = streams;
+        this.gaussian = gaussian;
+        this.scale = scale;
+        this.shift = shift;
+        this.b0 = b0;
+        this.b1 = b1;
+    }
+
+    // a[i] = shift + scale * u, u uniform in [0, 1)
+    static void uniform(double[] a, long seed, double scale, double shift) {
+        fill(a, seed, false, scale, shift);
+    }
+
+    // a[i] = sd * g, g normally distributed with mean 0 and sd 1
+    static void gaussian(double[] a, long seed, double sd) {
+        fill(a, seed, true, sd, 0);
+    }
+
+    private static void fill(double[] a, long seed, boolean gaussian, double scale, double shift) {
+        int blocks = (a.length + BLOCK - 1) / BLOCK;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++)
+            streams[b] = root.split();
+        RandomFill task = new RandomFill(a, streams, gaussian, scale, shift, 0, blocks);
+        ForkJoinPool pool = a.length >= PARALLEL ? Gemm.getPool() : null;
+        if (pool != null) {
+            pool.invoke(task);
+        } else {
+            task.fillBlocks(0, blocks);
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (b1 - b0 <= 1) {
+            fillBlocks(b0, b1);
+            return;
+        }
+        int mid = (b0 + b1) >>> 1;
+        invokeAll(new RandomFill(a, streams, gaussian, scale, shift, b0, mid),
+                new RandomFill(a, streams, gaussian, scale, shift, mid, b1));
+    }
+
+    private void fillBlocks(int from, int to) {
+        for (int b = from; b < to; b++) {
+            SplittableRandom r = streams[b];
+            int i = b * BLOCK;
+            int end = Math.min(a.length, i + BLOCK);
+            if (!gaussian) {
+                for (; i < end; i++)
+                    a[i] = shift + scale * r.nextDouble();
+                continue;
+            }
+            //Polar method, two values per accepted pair
+            while (i < end) {
+                double v1, v2, s;
+                do {
+                    v1 = 2 * r.nextDouble() - 1;
+                    v2 = 2 * r.nextDouble() - 1;
+                    s = v1 * v1 + v2 * v2;
+                } while (s >= 1 || s == 0);
+                double m = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+                a[i++] = scale * v1 * m;
+                if (i < end) a[i++] = scale * v2 * m;
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package Matrix;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Sparse matrix in compressed sparse column form. Only the non-zero values
+ * are kept: the row indices and values of column j are stored in
+ * rowIdx[colPtr[j]..colPtr[j+1]) and values[colPtr[j]..colPtr[j+1]),
+ * sorted by row.
+ *
+ * Inputs of a network are column vectors, a sparse input then takes one
+ * column pointer plus its non-zeros. Products with dense matrices only
+ * visit the non-zero values.
+ */
+final public class SparseMatrix implements Serializable {
+    final int M;            // number of rows
+    final int N;            // number of columns
+    final int[] colPtr;     // start of every column in rowIdx and values, N+1 entries
+    final int[] rowIdx;     // row of every non-zero value
+    final double[] values;  // non-zero values, column after column
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a sparse matrix from its compressed columns. The arrays are
+     * used as given, not copied.
+     *
+     * @param M number of rows
+     * @param N number of columns
+     * @param colPtr N+1 offsets, column j is in [colPtr[j], colPtr[j+1])
+     * @param rowIdx row indices (0 based) sorted within every column
+     * @param values non-zero values
+     */
+    public SparseMatrix(int M, int N, int[] colPtr, int[] rowIdx, double[] values) {
+        if (colPtr.length != N + 1 || colPtr[0] != 0 || rowIdx.length != values.length
+                || colPtr[N] != values.length)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        for (int j = 0; j < N; j++) {
+            if (colPtr[j] > colPtr[j + 1]) throw new RuntimeException("Illegal matrix dimensions.");
+            for (int k = colPtr[j]; k < colPtr[j + 1]; k++)
+                if (rowIdx[k] < 0 || rowIdx[k] >= M || (k > colPtr[j] && rowIdx[k] <= rowIdx[k - 1]))
+                    throw new RuntimeException("Illegal matrix dimensions.");
+        }
+        this.M = M;
+        this.N = N;
+        this.colPtr = colPtr;
+        this.rowIdx = rowIdx;
+        this.values = values;
+    }
+
+    // create a sparse copy of A keeping its non-zero values
+    public SparseMatrix(Matrix A) {
+        this.M = A.M;
+        this.N = A.N;
+        this.colPtr = new int[N + 1];
+        int nnz = 0;
+        for (int i = 0; i < M; i++)
+            for (int j = 0; j < N; j++)
+                if (A.get(A.index(i, j)) != 0) nnz++;
+        this.rowIdx = new int[nnz];
+        this.values = new double[nnz];
+        int k = 0;
+        for (int j = 0; j < N; j++) {
+            for (int i = 0; i < M; i++) {
+                double v = A.get(A.index(i, j));
+                if (v != 0) {
+                    rowIdx[k] = i;
+                    values[k++] = v;
+                }
+            }
+            colPtr[j + 1] = k;
+        }
+    }
+
+    /**
+     * Creates a sparse column vector.
+     *
+     * @param M number of rows
+     * @param rows row indices (0 based) of the non-zero values, increasing
+     * @param values non-zero values
+     * @return M-by-1 sparse matrix
+     */
+    public static SparseMatrix vector(int M, int[] rows, double[] values) {
+        return new SparseMatrix(M, 1, new int[]{0, values.length}, rows.clone(), values.clone());
+    }
+
+    // return a dense copy of this matrix
+    public Matrix toMatrix() {
+        Matrix A = new Matrix(M, N);
+        for (int j = 0; j < N; j++)
+            for (int k = colPtr[j]; k < colPtr[j + 1]; k++)
+                A.data[rowIdx[k] * N + j] = values[k];
+        return A;
+    }
+
+    public int getRows() {
+        return M;
+    }
+
+    public int getCols() {
+        return N;
+    }
+
+    // number of stored values
+    public int getNonZeros() {
+        return values.length;
+    }
+
+    public double getValue(int i, int j) {
+        if (i < 1 || i > M || j < 1 || j > N) throw new IndexOutOfBoundsException();
+        int k = Arrays.binarySearch(rowIdx, colPtr[j - 1], colPtr[j], i - 1);
+        return k < 0 ? 0 : values[k];
+    }
+
+    // create and return the transpose of the invoking matrix
+    public SparseMatrix transpose() {
+        int[] ptr = new int[M + 1];
+        for (int k = 0; k < values.length; k++)
+            ptr[rowIdx[k] + 1]++;
+        for (int i = 0; i < M; i++)
+            ptr[i + 1] += ptr[i];
+        int[] next = Arrays.copyOf(ptr, M);
+        int[] idx = new int[values.length];
+        double[] val = new double[values.length];
+        for (int j = 0; j < N; j++)
+            for (int k = colPtr[j]; k < colPtr[j + 1]; k++) {
+                int d = next[rowIdx[k]]++;
+                idx[d] = j;
+                val[d] = values[k];
+            }
+        return new SparseMatrix(N, M, ptr, idx, val);
+    }
+
+    // return C = A * B for a dense B
+    public Matrix times(Matrix B) {
+        if (N != B.M) throw new RuntimeException("Illegal matrix dimensions.");
+        Matrix C = new Matrix(M, B.N);
+        for (int p = 0; p < N; p++) {
+            int b = B.offset + p * B.rowStride;
+            for (int k = colPtr[p]; k < colPtr[p + 1]; k++) {
+                double v = values[k];
+                int c = rowIdx[k] * C.N;
+                for (int j = 0, bj = b; j < B.N; j++, bj += B.colStride)
+                    C.data[c + j] += v * B.get(bj);
+            }
+        }
+        return C;
+    }
+
+    // print matrix to standard output
+    public void show() {
+        for (int j = 0; j < N; j++)
+            for (int k = colPtr[j]; k < colPtr[j + 1]; k++)
+                System.out.printf("(%d,%d) %9.4f%n", rowIdx[k] + 1, j + 1, values[k]);
+    }
+}
@@ -0,0 +1,54 @@
+package NeuralNetwork;
+
+/**
+ * Activation function of a layer. It works on whole arrays, so every
+ * implementation runs one tight loop per layer instead of a call per
+ * neuron, and the derivative can reuse the activation value in the same
+ * loop (sigmoid, tanh).
+ *
+ * The arrays hold the values of a layer for one sample or for a batch:
+ * #neurons x samples values in rows, the value of sample j for neuron i at
+ * i * samples + j. Element wise functions ignore the layout, SOFTMAX uses
+ * it to normalize every sample.
+ *
+ * The built-in functions of EnumValues.ActivationFunction are in
+ * Activations. Other functions are registered there by name and selected
+ * with NN_Layer.setActivation(String).
+ *
+ * @author Federico
+ */
+public interface Activation {
+
+    /**
+     * Computes out = f(z)
+     *
+     * @param z values before activation
+     * @param out receives the activation values, same length as z
+     * @param samples number of samples (columns) in the arrays
+     */
+    void forward(double[] z, double[] out, int samples);
+
+    /**
+     * Computes deriv = f'(z)
+     *
+     * @param z values before activation
+     * @param out activation values computed by forward
+     * @param deriv receives the derivatives, same length as z
+     * @param samples number of samples (columns) in the arrays
+     */
+    void derivative(double[] z, double[] out, double[] deriv, int samples);
+
+    /**
+     * Computes out = f(z) and deriv = f'(z). The built-in functions do it in
+     * a single loop.
+     *
+     * @param z values before activation
+     * @param out receives the activation values
+     * @param deriv receives the derivatives
+     * @param samples number of samples (columns) in the arrays
+     */
+    default void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+        forward(z, out, samples);
+        derivative(z, out, deriv, samples);
+    }
+}
@@ -0,0 +1,434 @@
+package NeuralNetwork;
+
+import NeuralNetwork.EnumValues.ActivationFunction;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Activation functions by name. The built-in functions are registered under
+ * the names of EnumValues.ActivationFunction, other functions can be added
+ * with register:
+ *
+ * <pre>
+ * Activations.register("SWISH", new Swish());
+ * layer.setActivation("SWISH");
+ * </pre>
+ *
+ * @author Federico
+ */
+public final class Activations {
+
+    private static final Map<String, Activation> REGISTRY = new ConcurrentHashMap<>();
+    //Built-in functions computed with FastMath, by ordinal
+    private static final Activation[] FAST = new Activation[ActivationFunction.values().length];
+
+    static {
+        for (ActivationFunction f : ActivationFunction.values()) {
+            REGISTRY.put(f.name(), builtIn(f, false));
+            FAST[f.ordinal()] = builtIn(f, true);
+        }
+    }
+
+    private Activations() {
+    }
+
+    /**
+     * Registers an activation function. A name already registered by the
+     * user is replaced, the built-in names can't be.
+     *
+     * @param name name used by NN_Layer.setActivation(String)
+     * @param activation the function
+     */
+    public static void register(String name, Activation activation) {
+        if (name == null || activation == null) {
+            throw new RuntimeException("Illegal activation function.");
+        }
+        if (isBuiltIn(name)) {
+            throw new RuntimeException("Built-in activation function " + name + " can't be replaced.");
+        }
+        REGISTRY.put(name, activation);
+    }
+
+    /**
+     * Returns the activation function registered with name
+     *
+     * @param name
+     * @return activation function
+     */
+    public static Activation get(String name) {
+        Activation a = name != null ? REGISTRY.get(name) : null;
+        if (a == null) {
+            throw new RuntimeException("Unknown activation function " + name + ".");
+        }
+        return a;
+    }
+
+    /**
+     * Returns the built-in activation function f
+     *
+     * @param f
+     * @return activation function
+     */
+    public static Activation get(ActivationFunction f) {
+        return REGISTRY.get(f.name());
+    }
+
+    /**
+     * Returns the built-in activation function f, computed with the
+     * approximations of FastMath if fast is true. RELU, LEAKY_RELU and
+     * LINEAR are exact either way.
+     *
+     * @param f
+     * @param fast
+     * @return activation function
+     */
+    public static Activation get(ActivationFunction f, boolean fast) {
+        return fast ? FAST[f.ordinal()] : get(f);
+    }
+
+    // true if name is one of the EnumValues.ActivationFunction
+    static boolean isBuiltIn(String name) {
+        for (ActivationFunction f : ActivationFunction.values()) {
+            if (f.name().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Activation builtIn(ActivationFunction f, boolean fast) {
+        switch (f) {
+            case TANH:
+                return new Tanh(fast);
+            case ArcTAN:
+                return new ArcTan(fast);
+            case LINEAR:
+                return new Linear();
+            case ELU:
+                return new Elu(fast);
+            case RELU:
+                return new Relu();
+            case LEAKY_RELU:
+                return new LeakyRelu();
+            case SOFTPLUS:
+                return new SoftPlus(fast);
+            case SOFTMAX:
+                return new SoftMax(fast);
+            case SIGMOID:
+            default:
+                return new Sigmoid(fast);
+        }
+    }
+
+    private static double exp(boolean fast, double x) {
+        return fast ? FastMath.exp(x) : Math.exp(x);
+    }
+
+    /**
+     * Sigmoid function sigmoid(x)=1/(1+e^(-1*x)), derivative
+     * sigmoid(x)*(1-sigmoid(x))
+     */
+    private static final class Sigmoid implements Activation {
+        private final boolean fast; //FastMath approximations
+
+        Sigmoid(boolean fast) {
+            this.fast = fast;
+        }
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                out[i] = 1 / (1 + exp(fast, -1 * z[i]));
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = out[i] * (1 - out[i]);
+            }
+        }
+
+        @Override
+        public void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double o = 1 / (1 + exp(fast, -1 * z[i]));
+                out[i] = o;
+                deriv[i] = o * (1 - o);
+            }
+        }
+    }
+
+    /**
+     * tanh(x)=[2/(1+e^(-2*x))]-1, derivative 1-tanh(x)^2
+     */
+    private static final class Tanh implements Activation {
+        private final boolean fast; //FastMath approximations
+
+        Tanh(boolean fast) {
+            this.fast = fast;
+        }
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                out[i] = (2 / (1 + exp(fast, -2 * z[i]))) - 1;
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = 1 - out[i] * out[i];
+            }
+        }
+
+        @Override
+        public void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double o = (2 / (1 + exp(fast, -2 * z[i]))) - 1;
+                out[i] = o;
+                deriv[i] = 1 - o * o;
+            }
+        }
+    }
+
+    /**
+     * atan(x), derivative 1/(1+x^2)
+     */
+    private static final class ArcTan implements Activation {
+        private final boolean fast; //FastMath approximations
+
+        ArcTan(boolean fast) {
+            this.fast = fast;
+        }
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                out[i] = fast ? FastMath.atan(z[i]) : Math.atan(z[i]);
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = 1 / (1 + z[i] * z[i]);
+            }
+        }
+
+        @Override
+        public void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                out[i] = fast ? FastMath.atan(x) : Math.atan(x);
+                deriv[i] = 1 / (1 + x * x);
+            }
+        }
+    }
+
+    /**
+     * Identity f(x)=x, derivative 1
+     */
+    private static final class Linear implements Activation {
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            System.arraycopy(z, 0, out, 0, z.length);
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = 1;
+            }
+        }
+    }
+
+    /**
+     * Exponential Linear Unit elu(x)=alfa*(exp(x)-1) x<0 : x x>=0,
+     * derivative elu(x)+alfa x<0 : 1 x>=0
+     */
+    private static final class Elu implements Activation {
+        private static final double ALFA = 0.01;
+        private final boolean fast; //FastMath approximations
+
+        Elu(boolean fast) {
+            this.fast = fast;
+        }
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                out[i] = x < 0 ? (exp(fast, x) - 1) * ALFA : x;
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                deriv[i] = x < 0 ? exp(fast, x) - 1 + ALFA : 1;
+            }
+        }
+
+        @Override
+        public void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                if (x < 0) {
+                    double e = exp(fast, x) - 1;
+                    out[i] = e * ALFA;
+                    deriv[i] = e + ALFA;
+                } else {
+                    out[i] = x;
+                    deriv[i] = 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rectified Linear Unit f(x)= 0 x<0 : x x>=0, derivative 0 x<0 : 1 x>=0
+     */
+    private static final class Relu implements Activation {
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                out[i] = z[i] < 0 ? 0 : z[i];
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = z[i] < 0 ? 0 : 1;
+            }
+        }
+
+        @Override
+        public void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                boolean neg = x < 0;
+                out[i] = neg ? 0 : x;
+                deriv[i] = neg ? 0 : 1;
+            }
+        }
+    }
+
+    /**
+     * Leaky RELU l_relu(x)= alfa*x x<0 : x x>=0, derivative alfa x<0 : 1 x>=0
+     */
+    private static final class LeakyRelu implements Activation {
+        private static final double ALFA = 0.01;
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                out[i] = z[i] < 0 ? z[i] * ALFA : z[i];
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = z[i] < 0 ? ALFA : 1;
+            }
+        }
+
+        @Override
+        public void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                boolean neg = x < 0;
+                out[i] = neg ? x * ALFA : x;
+                deriv[i] = neg ? ALFA : 1;
+            }
+        }
+    }
+
+    /**
+     * SoftPlus s(x)=ln(1+exp(x)), derivative sigmoid(x). Computed as
+     * x+ln(1+exp(-x)) for x &gt; 0, so large inputs do not overflow
+     */
+    private static final class SoftPlus implements Activation {
+        private final boolean fast; //FastMath approximations
+
+        SoftPlus(boolean fast) {
+            this.fast = fast;
+        }
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                //x + ln(1+exp(-x)) for x > 0, exp does not overflow
+                out[i] = x > 0 ? x + Math.log1p(exp(fast, -x)) : Math.log1p(exp(fast, x));
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = 1 / (1 + exp(fast, -1 * z[i]));
+            }
+        }
+
+        @Override
+        public void forwardAndDerivative(double[] z, double[] out, double[] deriv, int samples) {
+            //One exp per element, e = exp(-|x|)
+            for (int i = 0; i < z.length; i++) {
+                double x = z[i];
+                if (x > 0) {
+                    double e = exp(fast, -x);
+                    out[i] = x + Math.log1p(e);
+                    deriv[i] = 1 / (1 + e);
+                } else {
+                    double e = exp(fast, x);
+                    out[i] = Math.log1p(e);
+                    deriv[i] = e / (1 + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * SoftMax S(x)= e^x/(SUM(e^x)) over the neurons of every sample. The
+     * derivative is the diagonal S(x)*(1-S(x))
+     */
+    private static final class SoftMax implements Activation {
+        private final boolean fast; //FastMath approximations
+
+        SoftMax(boolean fast) {
+            this.fast = fast;
+        }
+
+        @Override
+        public void forward(double[] z, double[] out, int samples) {
+            int neurons = z.length / samples;
+            for (int j = 0; j < samples; j++) {
+                double sum = 0;
+                //Compute SUM(e^x), e^x is kept in out
+                for (int i = 0, k = j; i < neurons; i++, k += samples) {
+                    double e = exp(fast, z[k]);
+                    out[k] = e;
+                    sum += e;
+                }
+                double inv = 1 / sum;
+                for (int i = 0, k = j; i < neurons; i++, k += samples) {
+                    out[k] *= inv;
+                }
+            }
+        }
+
+        @Override
+        public void derivative(double[] z, double[] out, double[] deriv, int samples) {
+            for (int i = 0; i < z.length; i++) {
+                deriv[i] = out[i] * (1 - out[i]);
+            }
+        }
+    }
+}
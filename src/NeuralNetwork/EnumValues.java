@@ -30,4 +30,9 @@ public class EnumValues {
     public enum LearningMethod{
         ONLINE,MINI_BATCH,BATCH
     }
+    
+    //Floating point precision of the weight matrices
+    public enum Precision{
+        DOUBLE,FLOAT
+    }
 }
@@ -0,0 +1,113 @@
+package NeuralNetwork;
+
+/**
+ * Fast approximations of the functions used by the activations, for layers
+ * in fast math mode (NN_Layer.setFastMath). The errors below are the
+ * largest ones measured over dense samples of the whole input range.
+ *
+ * exp: table of 2^(j/64) and a degree 3 polynomial on the remainder,
+ * relative error below 4e-11. Results below e^-707 (about 1e-307) are
+ * flushed to 0, the result is infinite above 709.
+ *
+ * sigmoid, tanh: computed with exp, absolute error below 2e-11.
+ *
+ * atan: reduced to [-tan(pi/8), tan(pi/8)] and a degree 9 odd polynomial,
+ * absolute error below 1e-8.
+ *
+ * @author Federico
+ */
+public final class FastMath {
+
+    private static final int BITS = 6; // 2^BITS table entries
+    private static final int SIZE = 1 << BITS;
+    private static final double SCALE = SIZE / Math.log(2);
+    //ln(2)/SIZE split in two so that k*LN2_HI is exact
+    private static final double LN2_HI = 0x1.62e42fee00000p-7;
+    private static final double LN2_LO = 0x1.a39ef35793c76p-39;
+    private static final double SHIFTER = 0x1.8p52; //rounds to an integer when added
+    private static final long[] TABLE = new long[SIZE]; //bits of 2^(j/SIZE)
+
+    private static final double TAN_PI_8 = 0.41421356237309503;
+    private static final double TAN_3PI_8 = 2.414213562373095;
+    private static final double PI_2 = Math.PI / 2;
+    private static final double PI_4 = Math.PI / 4;
+
+    static {
+        for (int j = 0; j < SIZE; j++) {
+            TABLE[j] = Double.doubleToRawLongBits(StrictMath.pow(2, (double) j / SIZE));
+        }
+    }
+
+    private FastMath() {
+    }
+
+    /**
+     * Approximation of e^x
+     *
+     * @param x
+     * @return e^x, relative error below 4e-11
+     */
+    public static double exp(double x) {
+        if (x > 709) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (x < -707) {
+            return 0;
+        }
+        //x = (m*SIZE + j)*ln(2)/SIZE + r, |r| <= ln(2)/(2*SIZE)
+        double kd = x * SCALE + SHIFTER;
+        long k = Double.doubleToRawLongBits(kd);
+        kd -= SHIFTER;
+        double r = x - kd * LN2_HI - kd * LN2_LO;
+        double p = 1 + r * (1 + r * (0.5 + r * (1.0 / 6)));
+        //2^m*2^(j/SIZE) by adding m to the exponent of the table entry
+        long bits = TABLE[(int) k & (SIZE - 1)] + ((k >> BITS) << 52);
+        return Double.longBitsToDouble(bits) * p;
+    }
+
+    /**
+     * Approximation of sigmoid(x)=1/(1+e^(-x))
+     *
+     * @param x
+     * @return sigmoid(x), absolute error below 2e-11
+     */
+    public static double sigmoid(double x) {
+        return 1 / (1 + exp(-x));
+    }
+
+    /**
+     * Approximation of tanh(x)=[2/(1+e^(-2*x))]-1
+     *
+     * @param x
+     * @return tanh(x), absolute error below 2e-11
+     */
+    public static double tanh(double x) {
+        return (2 / (1 + exp(-2 * x))) - 1;
+    }
+
+    /**
+     * Approximation of atan(x)
+     *
+     * @param x
+     * @return atan(x), absolute error below 1e-8
+     */
+    public static double atan(double x) {
+        double a = Math.abs(x);
+        double base;
+        double t;
+        if (a > TAN_3PI_8) {
+            base = PI_2;
+            t = -1 / a;
+        } else if (a > TAN_PI_8) {
+            base = PI_4;
+            t = (a - 1) / (a + 1);
+        } else {
+            base = 0;
+            t = a;
+        }
+        double z = t * t;
+        double y = base + ((((8.05374449538e-2 * z - 1.38776856032e-1) * z + 1.99777106478e-1) * z
+                - 3.33329491539e-1) * z * t + t);
+        return x < 0 ? -y : y;
+    }
+}
@@ -1,11 +1,16 @@
 
 package NeuralNetwork;
 
+import Matrix.FloatMatrix;
 import Matrix.Matrix;
+import Matrix.MatrixExpression;
+import Matrix.SparseMatrix;
 import NeuralNetwork.EnumValues.ActivationFunction;
 import NeuralNetwork.EnumValues.GradientDescent;
 import NeuralNetwork.EnumValues.InitializeMethod;
+import NeuralNetwork.EnumValues.Precision;
 import java.io.Serializable;
+import java.util.SplittableRandom;
 
 /**
  * This class creates a Layer for a neural network and provides methods to
@@ -22,14 +27,37 @@ public class NN_Layer implements Serializable {
     private Matrix delta_b; //Delta bias for Gradient Descend
     private Matrix outputs; //Activation function results
     private Matrix z; //Outputs of neurons before activation
+    private Matrix derivatives; //Activation function derivatives at z
     private Matrix errors; //Vector of size #neurons
+    //Single precision weights. When set, weights, delta_w and
+    //nesterov_deltas are null
+    private FloatMatrix f_weights;
+    private FloatMatrix f_delta_w;
+    private FloatMatrix f_nesterov_deltas;
     private ActivationFunction activation; //Activation Function Type
+    private String activation_name; //Registered activation, null for the built-in ones
+    private transient Activation activation_fn; //Resolved from activation or activation_name
+    private boolean fast_math = false; //Built-in activations computed with FastMath
     private double learning_rate;
     private double lambda = 0; //Regularization factor
     private double n_factor = 0;
     private InitializeMethod initialization; //Matrices initialization method
     private GradientDescent gradientMethod;
     private double batch_count = 0;
+    //Workspace of the batch feed forward, one column per sample. Allocated
+    //for the first batch and again only when the batch size changes. The
+    //previous workspace is kept aside, so alternating between full batches
+    //and the shorter last batch of an epoch allocates nothing
+    private transient Matrix batch_z;
+    private transient Matrix batch_outputs;
+    private transient Matrix batch_derivatives;
+    private transient Matrix batch_errors;
+    private transient Matrix[] batch_spare;
+    //Gradient descent update compiled for the current matrices and method,
+    //built again when either changes
+    private transient MatrixExpression.Program[] descend;
+    private transient Matrix descend_weights;
+    private transient GradientDescent descend_method;
     private static final long serialVersionUID = 2L;
 
     /**
@@ -39,6 +67,18 @@ public class NN_Layer implements Serializable {
      * learning rate, lambda, Gradient Descent, Nesterov factor
      */
     public NN_Layer(int inputs, int neurons, ActivationFunction act, InitializeMethod init, double lr, double lambda, GradientDescent grd, double n) {
+        this(inputs, neurons, act, init, lr, lambda, grd, n, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Neural Network layer constructor with reproducible initial weights.
+     * The weights and bias only depend on the seed, whatever the number of
+     * threads initializing them.
+     *
+     * @param definition "#in,#neurons,Activation Function, Initialization,
+     * learning rate, lambda, Gradient Descent, Nesterov factor, seed
+     */
+    public NN_Layer(int inputs, int neurons, ActivationFunction act, InitializeMethod init, double lr, double lambda, GradientDescent grd, double n, long seed) {
 
         //Set Matrices Initialization method
         this.initialization = init;
@@ -50,7 +90,7 @@ public class NN_Layer implements Serializable {
         this.gradientMethod = grd;
         this.n_factor = n;
         //Initialize Matrices
-        createMatrices(inputs, neurons);
+        createMatrices(inputs, neurons, seed);
 
     }
 
@@ -61,19 +101,7 @@ public class NN_Layer implements Serializable {
      * learning rate, lambda, Gradient Descent
      */
     public NN_Layer(int inputs, int neurons, ActivationFunction act, InitializeMethod init, double lr, double lambda, GradientDescent grd) {
-
-        //Set Matrices Initialization method
-        this.initialization = init;
-        //Set Activation Function
-        this.activation = act;
-
-        this.learning_rate = lr;
-        this.lambda = lambda;
-        this.gradientMethod = grd;
-        this.n_factor = 0;
-        //Initialize Matrices
-        createMatrices(inputs, neurons);
-
+        this(inputs, neurons, act, init, lr, lambda, grd, 0);
     }
 
     /**
@@ -82,17 +110,16 @@ public class NN_Layer implements Serializable {
      * @param definition "#in,#neurons
      */
     public NN_Layer(int inputs, int neurons) {
+        this(inputs, neurons, new SplittableRandom().nextLong());
+    }
 
-        //Set Matrices Initialization method
-        this.initialization = InitializeMethod.GAUSSIAN_RANDOM;
-        //Set ActivationFunction Function
-        this.activation = ActivationFunction.SIGMOID;
-        this.gradientMethod = GradientDescent.SGD;
-        this.learning_rate = 0.05;
-        this.lambda = 0;
-        //Initialize Matrices
-        createMatrices(inputs, neurons);
-
+    /**
+     * Neural Network layer constructor with reproducible initial weights
+     *
+     * @param definition "#in,#neurons,seed
+     */
+    public NN_Layer(int inputs, int neurons, long seed) {
+        this(inputs, neurons, ActivationFunction.SIGMOID, InitializeMethod.GAUSSIAN_RANDOM, 0.05, 0, GradientDescent.SGD, 0, seed);
     }
 
     /**
@@ -101,11 +128,16 @@ public class NN_Layer implements Serializable {
      *
      * @param in number of inputs to the layer
      * @param hidden number of neurons in the layer
+     * @param seed seed of the random values
      */
-    private void createMatrices(int in, int hidden) {
+    private void createMatrices(int in, int hidden, long seed) {
 
         int inputs = in;
         int neurons = hidden;
+        //Weights and bias draw from different streams
+        SplittableRandom seeds = new SplittableRandom(seed);
+        long w_seed = seeds.nextLong();
+        long b_seed = seeds.nextLong();
         //Initialize weight Matrix depending on Initialization method requested
         switch (initialization) {
             //Matrix elements = 0
@@ -118,63 +150,69 @@ public class NN_Layer implements Serializable {
                 outputs = new Matrix(neurons, 1);
                 errors = new Matrix(neurons, 1);
                 z = new Matrix(neurons, 1);
+                derivatives = new Matrix(neurons, 1);
                 break;
-            //Matrix elements initialize with random number from -0.5 to 0.5    
+            //Matrix elements initialize with random number from -1 to 1
             case RANDOM:
-                weights = Matrix.random(neurons, inputs);
+                weights = Matrix.random(neurons, inputs, w_seed);
                 delta_w = new Matrix(neurons, inputs);
                 nesterov_deltas = new Matrix(neurons, inputs);
-                bias = Matrix.random(neurons, 1);
+                bias = Matrix.random(neurons, 1, b_seed);
                 delta_b = new Matrix(neurons, 1);
                 outputs = new Matrix(neurons, 1);
                 errors = new Matrix(neurons, 1);
                 z = new Matrix(neurons, 1);
+                derivatives = new Matrix(neurons, 1);
                 break;
             //Matrix elements initalize with random number with mean = 0
             // and standard deviation =1
             case GAUSSIAN_RANDOM:
-                weights = Matrix.random_gaussian(neurons, inputs);
+                weights = Matrix.random_gaussian(neurons, inputs, w_seed);
                 delta_w = new Matrix(neurons, inputs);
                 nesterov_deltas = new Matrix(neurons, inputs);
-                bias = Matrix.random_gaussian(neurons, 1);
+                bias = Matrix.random_gaussian(neurons, 1, b_seed);
                 delta_b = new Matrix(neurons, 1);
                 outputs = new Matrix(neurons, 1);
                 errors = new Matrix(neurons, 1);
                 z = new Matrix(neurons, 1);
+                derivatives = new Matrix(neurons, 1);
                 break;
             //Matrix elements initialize with random number with mean=0 and
             //sd=sqrt(1/inputs)
             case XAVIER:
-                weights = Matrix.random_gaussian(neurons, inputs);
+                weights = Matrix.xavier(neurons, inputs, w_seed);
                 delta_w = new Matrix(neurons, inputs);
                 nesterov_deltas = new Matrix(neurons, inputs);
-                bias = Matrix.random_gaussian(neurons, 1);
+                bias = Matrix.random_gaussian(neurons, 1, b_seed);
                 delta_b = new Matrix(neurons, 1);
                 outputs = new Matrix(neurons, 1);
                 errors = new Matrix(neurons, 1);
                 z = new Matrix(neurons, 1);
+                derivatives = new Matrix(neurons, 1);
                 break;
             //Matrix elements initialize with random number with mean=0 and
             //sd=sqrt(2/inputs)
             case HE:
-                weights = Matrix.random_gaussian(neurons, inputs);
+                weights = Matrix.he(neurons, inputs, w_seed);
                 delta_w = new Matrix(neurons, inputs);
                 nesterov_deltas = new Matrix(neurons, inputs);
-                bias = Matrix.random_gaussian(neurons, 1);
+                bias = Matrix.random_gaussian(neurons, 1, b_seed);
                 delta_b = new Matrix(neurons, 1);
                 outputs = new Matrix(neurons, 1);
                 errors = new Matrix(neurons, 1);
                 z = new Matrix(neurons, 1);
+                derivatives = new Matrix(neurons, 1);
                 break;
             default:
-                weights = Matrix.random(neurons, inputs);
+                weights = Matrix.random(neurons, inputs, w_seed);
                 delta_w = new Matrix(neurons, inputs);
                 nesterov_deltas = new Matrix(neurons, inputs);
-                bias = Matrix.random(neurons, 1);
+                bias = Matrix.random(neurons, 1, b_seed);
                 delta_b = new Matrix(neurons, 1);
                 outputs = new Matrix(neurons, 1);
                 errors = new Matrix(neurons, 1);
                 z = new Matrix(neurons, 1);
+                derivatives = new Matrix(neurons, 1);
                 break;
         }
     }
@@ -212,7 +250,7 @@ public class NN_Layer implements Serializable {
      * @return number of inputs
      */
     public int getNumInputs() {
-        return weights.getCols();
+        return f_weights != null ? f_weights.getCols() : weights.getCols();
     }
 
     /**
@@ -258,17 +296,66 @@ public class NN_Layer implements Serializable {
      */
     public void setActivation(ActivationFunction act) {
         this.activation = act;
+        this.activation_name = null;
+        this.activation_fn = null;
+    }
+
+    /**
+     * This method sets an activation function registered in Activations.
+     * The name is saved with the layer, so it must be registered again
+     * before a saved layer is used.
+     *
+     * @param name
+     */
+    public void setActivation(String name) {
+        if (Activations.isBuiltIn(name)) {
+            setActivation(ActivationFunction.valueOf(name));
+            return;
+        }
+        this.activation_fn = Activations.get(name);
+        this.activation_name = name;
+        this.activation = null;
     }
 
     /**
      * This method returns the activation function
      *
-     * @return
+     * @return built-in activation function, null for a registered one
      */
     public ActivationFunction getactivationFunction() {
         return activation;
     }
 
+    /**
+     * This method turns the fast math mode on or off. Built-in activations
+     * then use the approximations of FastMath, with the maximum errors
+     * documented there. Registered activations are not changed.
+     *
+     * @param fast
+     */
+    public void setFastMath(boolean fast) {
+        this.fast_math = fast;
+        this.activation_fn = null;
+    }
+
+    /**
+     * This method returns true in fast math mode
+     *
+     * @return
+     */
+    public boolean isFastMath() {
+        return fast_math;
+    }
+
+    /**
+     * This method returns the name of the activation function
+     *
+     * @return
+     */
+    public String getActivationName() {
+        return activation_name != null ? activation_name : activation.name();
+    }
+
     /**
      * This method sets the Initialization method
      *
@@ -323,22 +410,74 @@ public class NN_Layer implements Serializable {
         return n_factor;
     }
 
+    /**
+     * This method sets the precision of the weight matrices. Current
+     * weights and deltas are converted.
+     *
+     * @param precision DOUBLE or FLOAT
+     */
+    public void setPrecision(Precision precision) {
+        if (precision == getPrecision()) {
+            return;
+        }
+        if (precision == Precision.FLOAT) {
+            f_weights = new FloatMatrix(weights);
+            f_delta_w = new FloatMatrix(delta_w);
+            f_nesterov_deltas = new FloatMatrix(nesterov_deltas);
+            weights = null;
+            delta_w = null;
+            nesterov_deltas = null;
+        } else {
+            weights = f_weights.toMatrix();
+            delta_w = f_delta_w.toMatrix();
+            nesterov_deltas = f_nesterov_deltas.toMatrix();
+            f_weights = null;
+            f_delta_w = null;
+            f_nesterov_deltas = null;
+        }
+    }
+
+    /**
+     * This method returns the precision of the weight matrices
+     *
+     * @return
+     */
+    public Precision getPrecision() {
+        return f_weights != null ? Precision.FLOAT : Precision.DOUBLE;
+    }
+
     /**
      * Returns weights(Transpose) x errors to be used for backpropagation
      *
      * @return Matrix
      */
     public Matrix getErrorGradient() {
-        Matrix m = weights.transpose();
-        m = m.times(errors);
+        if (f_weights != null) {
+            return f_weights.timesTransposeLeft(errors);
+        }
+        return weights.timesTransposeLeft(errors);
+    }
 
-        return m;
+    /**
+     * Same as getErrorGradient() written into dest, a vector of size #inputs.
+     * If dest has a column per sample, weights(Transpose) x errors of the
+     * batch set by setErrors is computed with one multiplication.
+     *
+     * @param dest
+     * @return dest
+     */
+    public Matrix getErrorGradient(Matrix dest) {
+        Matrix e = dest.getCols() == 1 ? errors : batch_errors;
+        if (f_weights != null) {
+            return f_weights.timesTransposeLeftInto(e, dest);
+        }
+        return weights.timesTransposeLeftInto(e, dest);
     }
 
     /**
      * Get Error vector
      *
-     * @return errors vector
+     * @return a copy of the errors vector
      */
     public Matrix getErrors() {
         Matrix e = new Matrix(errors);
@@ -346,34 +485,64 @@ public class NN_Layer implements Serializable {
     }
 
     /**
-     * Save errors
+     * Same as getErrors() written into dest, a vector of size #neurons, so
+     * that a caller reading the errors on every sample does not allocate.
+     *
+     * @param dest
+     * @return dest
+     */
+    public Matrix getErrors(Matrix dest) {
+        return dest.copyFrom(errors);
+    }
+
+    /**
+     * Save errors. A matrix with a column per sample sets the errors of the
+     * last batch fed forward.
      *
      * @return void
      */
     public void setErrors(Matrix m) {
-
-        for (int i = 0; i < m.getRows(); i++) {
-            errors.setValue(i + 1, 1, m.getValue(i + 1, 1));
+        if (m.getCols() == 1) {
+            errors.copyFrom(m);
+        } else {
+            createBatchMatrices(m.getCols());
+            batch_errors.copyFrom(m);
         }
     }
 
     /**
      * Get the weights Matrix
      *
-     * @return
+     * @return a double precision copy of the weights
      */
     public Matrix getWeights() {
+        if (f_weights != null) {
+            return f_weights.toMatrix();
+        }
         Matrix w = new Matrix(weights);
         return w;
     }
 
+    /**
+     * Same as getWeights() written into dest, a #neurons x #inputs matrix.
+     *
+     * @param dest
+     * @return dest
+     */
+    public Matrix getWeights(Matrix dest) {
+        if (f_weights != null) {
+            return f_weights.toMatrix(dest);
+        }
+        return dest.copyFrom(weights);
+    }
+
     /**
      * Get the derivatives of outputs
      *
      * @return derivate vector
      */
     public Matrix getActivationDerivates() {
-        return derivates();
+        return derivatives;
     }
 
     /**
@@ -382,516 +551,243 @@ public class NN_Layer implements Serializable {
      * @param in Inputs to this layer
      */
     public void gradient_descend() {
-        //Compute deltas
-        delta_w = delta_w.scale(1 / batch_count);
-        delta_b = delta_b.scale(1 / batch_count);
-
-        //Compute Reguralization values
-        Matrix reg = L2_reguralize(weights);
-        reg = reg.scale(1 / batch_count);
-
-        switch (gradientMethod) {
-            case SGD:
-                //Compute Gradient Descend
-                weights = weights.minus(delta_w);
-                //    weights = weights.minus(reg);
-                bias = bias.minus(delta_b);
-                break;
-            case NESTEROV:
-                delta_w = delta_w.minus(nesterov_deltas);
-                //Compute Gradient Descend
-                weights = weights.minus(delta_w);
-                //  weights = weights.minus(reg);
-                bias = bias.minus(delta_b);
-                nesterov_deltas = delta_w.scale(n_factor); //copy deltas to create deltas(t-1)
-                break;
-            default:
-                break;
+        if (f_weights != null) {
+            gradient_descend_float();
+            return;
+        }
+        if (descend == null || descend_weights != weights || descend_method != gradientMethod) {
+            compileDescend();
+        }
+        for (MatrixExpression.Program step : descend) {
+            step.run();
         }
 
         batch_count = 0; //reset batch counter for next batch
 
     }
 
-    /**
-     * Compute the gradient of the error for back propagation
-     * grad=weights(transpose) x errors x learning rate
-     *
-     * @param in
-     */
-    public void adjustDeltaWeights(Matrix in) {
-        Matrix gradient = errors.scale(learning_rate);
-        delta_b = delta_b.plus(gradient);
-        delta_w = delta_w.plus(gradient.times(in.transpose()));
-        batch_count++;
-    }
+    //Build the fused update of the double precision weights. Factors are
+    //read at every run, so the program is kept until the matrices change
+    private void compileDescend() {
+        //Compute deltas. Each step is a single fused pass over the matrices
+        MatrixExpression dw = Matrix.expr(delta_w).mul(() -> 1 / batch_count);
+        MatrixExpression db = Matrix.expr(delta_b).mul(() -> 1 / batch_count);
 
-    /**
-     * This method implements the feed forward algorithm
-     *
-     * @param in
-     * @return returns the output of the activation function
-     */
-    public Matrix feedForward(Matrix in) {
-        //Feed forward
-        //z = weights x in + bias
-        z = weights.times(in);
-        z = z.plus(bias);
+        //Reguralization is not applied. To enable it subtract
+        //Matrix.expr(weights).mul(lambda * learning_rate / batch_count)
+        //from the weights
 
-        //output = Activation Function(z)
-        switch (activation) {
-            case SIGMOID:
-                outputs = sigmoid(z);
-                break;
-            case TANH:
-                outputs = tanh(z);
-                break;
-            case ArcTAN:
-                outputs = arcTan(z);
-                break;
-            case ELU:
-                outputs = elu(z);
-                break;
-            case RELU:
-                outputs = relu(z);
-                break;
-            case LEAKY_RELU:
-                outputs = l_relu(z);
-                break;
-            case SOFTMAX:
-                outputs = softMax(z);
+        MatrixExpression.Program bias_step = MatrixExpression.compile(new Matrix[]{delta_b, bias},
+                new MatrixExpression[]{db, Matrix.expr(bias).minus(db)});
+        switch (gradientMethod) {
+            case SGD:
+                //Compute Gradient Descend
+                descend = new MatrixExpression.Program[]{
+                    MatrixExpression.compile(new Matrix[]{delta_w, weights},
+                    new MatrixExpression[]{dw, Matrix.expr(weights).minus(dw)}),
+                    bias_step};
                 break;
-            case SOFTPLUS:
-                outputs = softplus(z);
+            case NESTEROV:
+                dw = dw.minus(nesterov_deltas);
+                //Compute Gradient Descend, deltas(t-1) = deltas * n_factor
+                MatrixExpression next = dw.mul(() -> n_factor);
+                descend = new MatrixExpression.Program[]{
+                    MatrixExpression.compile(new Matrix[]{weights, delta_w, nesterov_deltas},
+                    new MatrixExpression[]{Matrix.expr(weights).minus(dw), next, next}),
+                    bias_step};
                 break;
-            case LINEAR:
-                outputs = linear(z);
             default:
-                outputs = sigmoid(z);
+                descend = new MatrixExpression.Program[0];
                 break;
         }
-
-        return outputs;
+        descend_weights = weights;
+        descend_method = gradientMethod;
     }
 
     /**
-     * Computes the derivatives of the activation functions
-     *
-     * @return derivatives vector
+     * Gradient Descend on single precision weights. Same steps as
+     * gradient_descend()
      */
-    private Matrix derivates() {
-
-        Matrix derivatives = new Matrix(outputs);
+    private void gradient_descend_float() {
+        f_delta_w.scale(1 / batch_count);
+        delta_b.scale(1 / batch_count);
 
-        switch (activation) {
-            case SIGMOID:
-                derivatives = derivate_sigmoid(outputs);
-                break;
-            case TANH:
-                derivatives = derivative_tanh(z);
-                break;
-            case ArcTAN:
-                derivatives = derivative_arcTan(z);
-                break;
-            case ELU:
-                derivatives = derivative_elu(z);
-                break;
-            case RELU:
-                derivatives = derivative_relu(z);
-                break;
-            case LEAKY_RELU:
-                derivatives = derivative_l_relu(z);
-                break;
-            case SOFTMAX:
-                derivatives = derivative_softmax(outputs);
+        switch (gradientMethod) {
+            case SGD:
+                f_weights.minusInPlace(f_delta_w);
+                bias.minusInPlace(delta_b);
                 break;
-            case SOFTPLUS:
-                derivatives = derivative_softplus(z);
+            case NESTEROV:
+                f_delta_w.minusInPlace(f_nesterov_deltas);
+                f_weights.minusInPlace(f_delta_w);
+                bias.minusInPlace(delta_b);
+                f_delta_w.scale(n_factor);
+                f_nesterov_deltas.copyFrom(f_delta_w);
                 break;
-            case LINEAR:
-                derivatives = derivative_linear(z);
             default:
-                derivatives = derivate_sigmoid(outputs);
                 break;
         }
-        return derivatives;
-    }
-
-    /**
-     * Linear Activation Function f(x)=x
-     *
-     * @param m
-     * @return
-     */
-    private Matrix linear(Matrix m) {
-        Matrix linear = new Matrix(m);
-        return linear;
-    }
 
-    /**
-     * Derivative of Linear Function f'(x)=1
-     *
-     * @param m
-     * @return
-     */
-    private Matrix derivative_linear(Matrix m) {
-        Matrix deriv = new Matrix(m);
-        for (int i = 0; i < deriv.getRows(); i++) {
-            deriv.setValue(i + 1, 1, 1);
-        }
-        return deriv;
+        batch_count = 0; //reset batch counter for next batch
     }
 
     /**
-     * Exponential Linear Unit activation function elu(x)=alfa*(exp(x)-1)
-     * x<0 : x x>=0
+     * Compute the gradient of the error for back propagation
+     * grad=weights(transpose) x errors x learning rate
      *
-     * @param m
-     * @return
-     */
-    private Matrix elu(Matrix m) {
-        Matrix elu = new Matrix(m);
-        double alfa = 0.01;
-        double value = 0;
-        for (int i = 0; i < elu.getRows(); i++) {
-            value = m.getValue(i + 1, 1);
-            if (value < 0) {
-                elu.setValue(i + 1, 1, ((Math.exp(m.getValue(i + 1, 1))) - 1) * alfa);
-            } else {
-                elu.setValue(i + 1, 1, value);
-            }
-        }
-        return elu;
-    }
-
-    /**
-     * Derivatives of ELU function dELU=elu(x)+alfa x<0 : 1 x>=0
+     * For a batch of inputs, one per column, the errors of the batch are
+     * used: delta weights get errors x inputs(Transpose) in a single
+     * multiplication and delta bias the sum of the error columns.
      *
-     * @param m
-     * @return
+     * @param in
      */
-    private Matrix derivative_elu(Matrix m) {
-        Matrix deriv = new Matrix(m);
-        double value = 0;
-        double alfa = 0.01;
-        for (int i = 0; i < deriv.getRows(); i++) {
-            value = m.getValue(i + 1, 1);
-            if (value < 0) {
-                deriv.setValue(i + 1, 1, ((Math.exp(m.getValue(i + 1, 1))) - 1 + alfa));
+    public void adjustDeltaWeights(Matrix in) {
+        if (in.getCols() != 1) {
+            Matrix gradient = batch_errors.scale(learning_rate);
+            delta_b.plusRowSums(gradient);
+            if (f_weights != null) {
+                f_delta_w.rankUpdate(1.0, gradient, in);
             } else {
-                deriv.setValue(i + 1, 1, 1);
+                delta_w.rankUpdate(1.0, gradient, in);
             }
+            batch_count += in.getCols();
+            return;
         }
-        return deriv;
-    }
-
-    /**
-     * Arc Tangent Activation function arcTan(x)= atan(x)
-     *
-     * @param m
-     * @return
-     */
-    private Matrix arcTan(Matrix m) {
-        Matrix atan = new Matrix(m);
-        for (int i = 0; i < atan.getRows(); i++) {
-            atan.setValue(i + 1, 1, Math.atan(m.getValue(i + 1, 1)));
-        }
-        return atan;
-    }
-
-    /**
-     * Derivatives of ArcTan activated values derivative atan(x)=1/(1+x^2)
-     *
-     * @param m
-     * @return
-     */
-    private Matrix derivative_arcTan(Matrix m) {
-        Matrix deriv = new Matrix(m);
-        for (int i = 0; i < deriv.getRows(); i++) {
-            deriv.setValue(i + 1, 1, derivate_arcTan(m.getValue(i + 1, 1)));
+        Matrix gradient = errors.scale(learning_rate);
+        delta_b.plusInPlace(gradient);
+        if (f_weights != null) {
+            f_delta_w.ger(1.0, gradient, in);
+        } else {
+            delta_w.ger(1.0, gradient, in);
         }
-        return deriv;
-    }
-
-    /**
-     * Derivatives of ArcTan activated values derivative atan(x)=1/(1+x^2)
-     *
-     * @param value
-     * @return
-     */
-    private double derivate_arcTan(double value) {
-        return 1 / (1 + value * value);
+        batch_count++;
     }
 
     /**
-     * SoftPlus Activation Function s(x)=ln(1+exp(x))
+     * Same as adjustDeltaWeights(Matrix) for a sparse input. Only the weight
+     * columns of non-zero inputs are changed.
      *
-     * @param m
-     * @return
+     * @param in
      */
-    private Matrix softplus(Matrix m) {
-        Matrix act = new Matrix(m);
-        for (int i = 0; i < act.getRows(); i++) {
-            act.setValue(i + 1, 1, softplus(m.getValue(i + 1, 1)));
+    public void adjustDeltaWeights(SparseMatrix in) {
+        Matrix gradient = errors.scale(learning_rate);
+        delta_b.plusInPlace(gradient);
+        if (f_weights != null) {
+            f_delta_w.ger(1.0, gradient, in);
+        } else {
+            delta_w.ger(1.0, gradient, in);
         }
-        return act;
+        batch_count++;
     }
 
     /**
-     * SoftPlus Activation Function s(x)=ln(1+exp(x))
+     * This method implements the feed forward algorithm. z is computed in
+     * one pass over the weights, then the activation outputs and their
+     * derivatives in one loop of the layer Activation.
      *
-     * @param value
-     * @return
-     */
-    private double softplus(double value) {
-        return Math.log(1 + Math.exp(value));
-    }
-
-    /**
-     * Derivative of SoftPlus activated values derivative
-     * softplus(x)=sigmoid(x);
-     */
-    private Matrix derivative_softplus(Matrix m) {
-        Matrix act = new Matrix(m);
-        act = sigmoid(m);
-
-        return act;
-    }
-
-    /**
-     * Leaky RELU activation function l_relu(x)= alfa*x x<0 : x x>=0
+     * The input can also be a batch with one sample in every column
+     * (#inputs x batch). The whole batch is then multiplied by the weights
+     * at once and the result is a #neurons x batch matrix of outputs, with
+     * the activation (SOFTMAX too) applied to every column. The outputs of
+     * a batch are kept apart from the outputs of a single sample.
      *
-     * @param m
-     * @return
+     * @param in
+     * @return returns the output of the activation function
      */
-    private Matrix l_relu(Matrix m) {
-        Matrix relu = new Matrix(m);
-        double alfa = 0.01;
-        double value = 0;
-        for (int i = 0; i < relu.getRows(); i++) {
-            value = m.getValue(i + 1, 1);
-            if (value < 0) {
-                relu.setValue(i + 1, 1, value * alfa);
-            } else {
-                relu.setValue(i + 1, 1, value);
-            }
-        }
-        return relu;
+    public Matrix feedForward(Matrix in) {
+        return feedForward(in, null);
     }
 
     /**
-     * Derivatives of Leaky RELU activated values derivative l_relu(x)= alfa
-     * x<0 : 1 x>=0
+     * Feed forward of a sparse input. Only the weight columns of non-zero
+     * inputs are read, used by the first layer of a network.
      *
-     * @param m
-     * @return
+     * @param in
+     * @return returns the output of the activation function
      */
-    private Matrix derivative_l_relu(Matrix m) {
-        Matrix deriv = new Matrix(m);
-        double value = 0;
-        double alfa = 0.01;
-        for (int i = 0; i < deriv.getRows(); i++) {
-            value = m.getValue(i + 1, 1);
-            if (value < 0) {
-                deriv.setValue(i + 1, 1, alfa);
-            } else {
-                deriv.setValue(i + 1, 1, 1);
-            }
-        }
-        return deriv;
+    public Matrix feedForward(SparseMatrix in) {
+        return feedForward(null, in);
     }
 
-    /**
-     * Rectified Linear Unit RELU function f(x): 0 if x<0 : x>=0
-     *
-     * @param m
-     * @return
-     */
-    private Matrix relu(Matrix m) {
-        Matrix relu = new Matrix(m);
-        double value = 0;
-        for (int i = 0; i < relu.getRows(); i++) {
-            value = m.getValue(i + 1, 1);
-            if (value < 0) {
-                relu.setValue(i + 1, 1, 0);
-            } else {
-                relu.setValue(i + 1, 1, value);
-            }
+    //Either in or sparseIn is null
+    private Matrix feedForward(Matrix in, SparseMatrix sparseIn) {
+        //Layers loaded from older files have no derivatives vector
+        if (derivatives == null) {
+            derivatives = new Matrix(z.getRows(), 1);
         }
-        return relu;
-    }
-
-    /**
-     * Derivatives of RELU activated values derivate RELU(x)= 0 x<0 : 1 x>=0
-     *
-     * @param m
-     * @return
-     */
-    private Matrix derivative_relu(Matrix m) {
-        Matrix deriv = new Matrix(m);
-        double value = 0;
-        for (int i = 0; i < deriv.getRows(); i++) {
-            value = m.getValue(i + 1, 1);
-            if (value < 0) {
-                deriv.setValue(i + 1, 1, 0);
-            } else {
-                deriv.setValue(i + 1, 1, 1);
-            }
+        if (activation_fn == null) {
+            activation_fn = activation_name != null ? Activations.get(activation_name) : Activations.get(activation, fast_math);
         }
-        return deriv;
-    }
-
-    /**
-     * Sigmoid activation function
-     *
-     * @param m vector of values
-     * @return vector of values
-     */
-    private Matrix sigmoid(Matrix m) {
-
-        Matrix act = new Matrix(m);
-        for (int i = 0; i < act.getRows(); i++) {
-            act.setValue(i + 1, 1, sigmoid(m.getValue(i + 1, 1)));
+        //Feed forward
+        //z = weights x in + bias
+        //output = Activation Function(z), derivatives in the same loop
+        //Single sample or batch matrices
+        Matrix zm = z;
+        Matrix out = outputs;
+        Matrix deriv = derivatives;
+        if (in != null && in.getCols() != 1) {
+            createBatchMatrices(in.getCols());
+            zm = batch_z;
+            out = batch_outputs;
+            deriv = batch_derivatives;
         }
-        return act;
-    }
-
-    /**
-     * Computes the sigmoid of value x sigmoid(x)=1/(1+e^(-1*x))
-     *
-     * @param double value
-     * @return double sigmoid(value)
-     */
-    private double sigmoid(double value) {
-
-        return 1 / (1 + Math.exp(-1 * value));
-    }
 
-    /**
-     * Computes the derivatives of Sigmoid activated outputs
-     * dSigmoid(x)=sigmoid(x)*(1-sigmoid(x))
-     *
-     * @param vector of values
-     * @return vector of derivatives
-     */
-    private Matrix derivate_sigmoid(Matrix m) {
-
-        Matrix deriv = new Matrix(m);
-        for (int i = 0; i < deriv.getRows(); i++) {
-            deriv.setValue(i + 1, 1, derivate_sigmoid(m.getValue(i + 1, 1)));
+        if (sparseIn != null && f_weights != null) {
+            f_weights.denseForward(sparseIn, bias, zm, null, null, null, null);
+        } else if (sparseIn != null) {
+            weights.denseForward(sparseIn, bias, zm, null, null, null, null);
+        } else if (f_weights != null) {
+            f_weights.denseForward(in, bias, zm, null, null, null, null);
+        } else {
+            weights.denseForward(in, bias, zm, null, null, null, null);
         }
-        return deriv;
-    }
+        activation_fn.forwardAndDerivative(zm.getArray(), out.getArray(), deriv.getArray(), zm.getCols());
 
-    /**
-     * Computes the derivative of Sigmoid function
-     * dSigmoid(x)=sigmoid(x)*(1-sigmoid(x))
-     *
-     * @param value
-     * @return
-     */
-    private double derivate_sigmoid(double value) {
-
-        return value * (1 - value);
+        return out;
     }
 
-    /**
-     * Computes the TANH of vector m tanh(x)=[2/(1+e^(-2*x))]-1
-     *
-     * @param m
-     * @return
-     */
-    private Matrix tanh(Matrix m) {
-        Matrix tanh = new Matrix(m);
-
-        for (int i = 0; i < tanh.getRows(); i++) {
-            tanh.setValue(i + 1, 1, tanh(m.getValue(i + 1, 1)));
+    //Size the batch workspace for batch samples
+    private void createBatchMatrices(int batch) {
+        if (batch_z != null && batch_z.getCols() == batch) {
+            return;
         }
-        return tanh;
-    }
-
-    /**
-     * Computes tanh of value
-     *
-     * @param value
-     * @return tanh
-     */
-    private double tanh(double value) {
-        double tanh = (2 / (1 + Math.exp(-2 * value))) - 1;
-        return tanh;
-    }
-
-    /**
-     * Computes derivative of tanh vector m f'(x)=1=f(2)^2
-     *
-     * @param m
-     * @return
-     */
-    private Matrix derivative_tanh(Matrix m) {
-        Matrix der = new Matrix(m);
-        for (int i = 0; i < der.getRows(); i++) {
-            der.setValue(i + 1, 1, derivative_tanh(m.getValue(i + 1, 1)));
+        if (batch_spare == null) {
+            batch_spare = new Matrix[4];
         }
-        return der;
+        //Swap the current workspace with the one kept aside
+        Matrix[] spare = batch_spare;
+        boolean reuse = spare[0] != null && spare[0].getCols() == batch;
+        int neurons = z.getRows();
+        Matrix m = batch_z;
+        batch_z = reuse ? spare[0] : new Matrix(neurons, batch);
+        spare[0] = m;
+        m = batch_outputs;
+        batch_outputs = reuse ? spare[1] : new Matrix(neurons, batch);
+        spare[1] = m;
+        m = batch_derivatives;
+        batch_derivatives = reuse ? spare[2] : new Matrix(neurons, batch);
+        spare[2] = m;
+        m = batch_errors;
+        batch_errors = reuse ? spare[3] : new Matrix(neurons, batch);
+        spare[3] = m;
     }
 
     /**
-     * Computes derivative of value f'(x)=1=f(2)^2
+     * Returns the outputs of the last batch feed forward, #neurons x batch
      *
-     * @param value
-     * @return
+     * @return batch outputs, null if no batch was fed forward
      */
-    private double derivative_tanh(double value) {
-        double t = tanh(value);
-        return 1 - t * t;
+    public Matrix getBatchOutputs() {
+        return batch_outputs;
     }
 
     /**
-     * SoftMax ActivationFunction function S(x)= e^x/(SUM(e^x)); x is a vector
-     * of values
+     * Returns the activation derivatives of the last batch feed forward
      *
-     * @param vector of output values
-     * @return vector of SoftMax Values
+     * @return batch derivatives, null if no batch was fed forward
      */
-    private Matrix softMax(Matrix m) {
-        Matrix softmax = new Matrix(m);
-
-        double sum = 0;
-        //Compute SUM(e^x)
-        for (int i = 0; i < softmax.getRows(); i++) {
-            sum += Math.exp(m.getValue(i + 1, 1));
-        }
-        //Compute softmax of vector element and store it in softmax vector
-        for (int i = 0; i < softmax.getRows(); i++) {
-            softmax.setValue(i + 1, 1, Math.exp(m.getValue(i + 1, 1)) / sum);
-        }
-        return softmax;
-    }
-
-    private Matrix derivative_softmax(Matrix m) {
-        Matrix deriv = new Matrix(m);
-
-        for (int i = 0; i < deriv.getRows(); i++) {
-            deriv.setValue(i + 1, 1, derivate_sigmoid(deriv.getValue(i + 1, 1)));
-        }
-        return deriv;
-    }
-
-    /**
-     * This method Implements L2 Reguralization
-     *
-     * @param m
-     * @return
-     */
-    private Matrix L2_reguralize(Matrix m) {
-        Matrix r = new Matrix(m);
-
-        for (int i = 0; i < r.getRows(); i++) {
-            for (int j = 0; j < r.getCols(); j++) {
-                r.setValue(i + 1, j + 1, lambda * learning_rate * m.getValue(i + 1, j + 1));
-            }
-        }
-        return r;
+    public Matrix getBatchDerivates() {
+        return batch_derivatives;
     }
 
     /**
@@ -899,8 +795,8 @@ public class NN_Layer implements Serializable {
      */
     public void printLayerInfo() {
 
-        int weightColumns = weights.getCols();
-        int weightRows = weights.getRows();
+        int weightColumns = getNumInputs();
+        int weightRows = getNumOutputs();
 
         int biasColumns = bias.getCols();
         int biasRows = bias.getRows();
@@ -912,10 +808,14 @@ public class NN_Layer implements Serializable {
         int errorRows = errors.getRows();
 
         System.out.println("Inputs: " + weightColumns + " Neurons: " + weightRows);
-        System.out.println("Activation Function: " + activation);
+        System.out.println("Activation Function: " + getActivationName());
         System.out.println("Init type: " + initialization);
         System.out.println("Weights Matrix");
-        weights.show();
+        if (f_weights != null) {
+            f_weights.show();
+        } else {
+            weights.show();
+        }
         System.out.println("Bias Matrix");
         bias.show();
         System.out.println("Outputs Matrix");
@@ -930,14 +830,14 @@ public class NN_Layer implements Serializable {
      * @return
      */
     public String getLayerInfo() {
-        int weightColumns = weights.getCols();
-        int weightRows = weights.getRows();
+        int weightColumns = getNumInputs();
+        int weightRows = getNumOutputs();
 
         int outputColumns = outputs.getCols();
         int outputRows = outputs.getRows();
 
         String s = weightColumns + "," + weightRows + ",";
-        s += activation + "," + initialization + "," + gradientMethod + "," + n_factor;
+        s += getActivationName() + "," + initialization + "," + gradientMethod + "," + n_factor;
         return s;
     }
 
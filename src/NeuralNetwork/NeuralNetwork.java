@@ -2,12 +2,15 @@
 package NeuralNetwork;
 
 import Matrix.Matrix;
+import Matrix.MatrixPool;
+import Matrix.SparseMatrix;
 import java.io.Serializable;
 import NeuralNetwork.EnumValues.ActivationFunction;
 import NeuralNetwork.EnumValues.InitializeMethod;
 import NeuralNetwork.EnumValues.CostFunction;
 import NeuralNetwork.EnumValues.GradientDescent;
 import NeuralNetwork.EnumValues.LearningMethod;
+import NeuralNetwork.EnumValues.Precision;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -17,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -35,6 +39,21 @@ public class NeuralNetwork implements Serializable {
     private double n_factor = 0; //Nesterov momemtum factor
     private int index = 0; //To keep track of initialize layers
     private boolean queueFlag = false;
+    private Precision precision = Precision.DOUBLE; //Precision of layer weights
+    private boolean seeded = false; //Initial weights derived from seed
+    private boolean fastMath = false; //Layers use the FastMath activations
+    private static final int EVAL_BATCH = 128; //Samples fed forward at once by the evaluations
+    private static final int TRAIN_BATCH = 128; //Samples propagated at once by batch training
+    //Inputs and targets of the batch being trained, one sample per column.
+    //The previous pair is kept aside for the shorter last batch of an epoch
+    private transient Matrix batch_in;
+    private transient Matrix batch_tg;
+    private transient Matrix spare_in;
+    private transient Matrix spare_tg;
+    private transient List<Matrix> mini_in;  //Samples of the current mini batch
+    private transient List<Matrix> mini_tg;
+    private transient Random mini_random;
+    private long seed;
 
     private static long serialVersionUID = 2L;
 
@@ -54,6 +73,19 @@ public class NeuralNetwork implements Serializable {
 
     }
 
+    /**
+     * Constructor to setup a Neural Network with the given precision for
+     * the weight matrices of all layers.
+     *
+     * @param num_hidden_layers Number of hidden layers including the outputs
+     * layer
+     * @param precision DOUBLE or FLOAT
+     */
+    public NeuralNetwork(String name, int in, int num_hidden_layers, double lr, double lambda, Precision precision) {
+        this(name, in, num_hidden_layers, lr, lambda);
+        this.precision = precision;
+    }
+
     /**
      * Layer Builder Method.
      *
@@ -66,7 +98,9 @@ public class NeuralNetwork implements Serializable {
      */
     public void layerBuilder(int Inputs, int Neurons, ActivationFunction act, InitializeMethod init, GradientDescent grd) {
         if (index < layer.length) {
-            layer[index++] = new NN_Layer(Inputs, Neurons, act, init, learning_rate, lambda, grd);
+            layer[index] = new NN_Layer(Inputs, Neurons, act, init, learning_rate, lambda, grd, 0, layerSeed());
+            layer[index].setFastMath(fastMath);
+            layer[index++].setPrecision(getPrecision());
         } else {
             throw new RuntimeException("Layer number out of Bounds");
         }
@@ -85,12 +119,31 @@ public class NeuralNetwork implements Serializable {
      */
     public void layerBuilder(int Inputs, int Neurons, ActivationFunction act, InitializeMethod init, GradientDescent grd, double factor) {
         if (index < layer.length) {
-            layer[index++] = new NN_Layer(Inputs, Neurons, act, init, learning_rate, lambda, grd, factor);
+            layer[index] = new NN_Layer(Inputs, Neurons, act, init, learning_rate, lambda, grd, factor, layerSeed());
+            layer[index].setFastMath(fastMath);
+            layer[index++].setPrecision(getPrecision());
         } else {
             throw new RuntimeException("Layer number out of Bounds");
         }
     }
 
+    /**
+     * Layer Builder Method with an activation function registered in
+     * Activations.
+     *
+     * @param Inputs Specify the number of inputs to this layers
+     * @param Neurons How many nodes contained in this layer
+     * @param act Name of the Activation Function
+     * @param init Specify initialization Method for Matrices
+     * @param grd Gradient Descent Method
+     * @param factor Nesterov momemtum factor
+     */
+    public void layerBuilder(int Inputs, int Neurons, String act, InitializeMethod init, GradientDescent grd, double factor) {
+        Activations.get(act); //Unknown names fail before the layer is added
+        layerBuilder(Inputs, Neurons, ActivationFunction.SIGMOID, init, grd, factor);
+        layer[index - 1].setActivation(act);
+    }
+
     /**
      * Layer Builder Method. Activation Function will be the Sigmoid,
      * Initialization method for matrices will be Gaussian Random with mean = 0
@@ -102,12 +155,39 @@ public class NeuralNetwork implements Serializable {
      */
     public void layerBuilder(int Inputs, int Neurons) {
         if (index < layer.length) {
-            layer[index++] = new NN_Layer(Inputs, Neurons);
+            layer[index] = new NN_Layer(Inputs, Neurons, layerSeed());
+            layer[index].setFastMath(fastMath);
+            layer[index++].setPrecision(getPrecision());
         } else {
             throw new RuntimeException("Layer number out of Bounds");
         }
     }
 
+    /**
+     * Sets the seed of the initial weights. Layers built after this call get
+     * the same weights for the same seed and layer number, on any number of
+     * threads. Without a seed every network starts from different weights.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+    }
+
+    //Seed of the layer being built, the index-th value of the network seed stream
+    private long layerSeed() {
+        if (!seeded) {
+            return new SplittableRandom().nextLong();
+        }
+        SplittableRandom seeds = new SplittableRandom(seed);
+        long s = seeds.nextLong();
+        for (int i = 0; i < index; i++) {
+            s = seeds.nextLong();
+        }
+        return s;
+    }
+
     /**
      * Loops through the network and checks if outputs matched inputs in the
      * next layer.
@@ -129,17 +209,57 @@ public class NeuralNetwork implements Serializable {
     /**
      * Takes input Matrix and loops through the network feedforwarding results
      *
+     * The input can be a batch of samples, one per column. Each layer then
+     * multiplies the whole batch at once and the outputs have a column per
+     * sample.
+     *
      * @param in Input Matrix
      * @return Outputs Matrix
      */
     public Matrix makeGuess(Matrix in) {
-        Matrix[] m = new Matrix[layer.length + 1];
-        m[0] = new Matrix(in);
-        for (int i = 0; i < m.length - 1; i++) {
-            m[i + 1] = new Matrix(layer[i].feedForward(m[i]));
+        //Return a copy of the outputs. Is the last layer of the network
+        return new Matrix(feedForward(in));
+    }
+
+    /**
+     * Same as makeGuess(Matrix) for a sparse input vector
+     *
+     * @param in Sparse input column vector
+     * @return Outputs Matrix
+     */
+    public Matrix makeGuess(SparseMatrix in) {
+        return new Matrix(feedForward(in));
+    }
+
+    //Feed forward all the layers, returns the outputs of the last layer
+    private Matrix feedForward(Matrix in) {
+        Matrix m = in;
+        for (int i = 0; i < layer.length; i++) {
+            m = layer[i].feedForward(m);
         }
-        //Return outputs. Is the last layer of the network
-        return m[m.length - 1];
+        return m;
+    }
+
+    private Matrix feedForward(SparseMatrix in) {
+        Matrix m = layer[0].feedForward(in);
+        for (int i = 1; i < layer.length; i++) {
+            m = layer[i].feedForward(m);
+        }
+        return m;
+    }
+
+    //Feeds forward the next count samples of it as one batch, the samples
+    //are copied into the columns of batch
+    private Matrix feedForward(Iterator<Matrix> it, int count, Matrix batch) {
+        for (int j = 1; j <= count; j++) {
+            batch.column(j).copyFrom(it.next());
+        }
+        return feedForward(batch);
+    }
+
+    //Same as makeGuess with the copy borrowed from the pool
+    private Matrix borrowGuess(Matrix out) {
+        return MatrixPool.borrow(out.getRows(), out.getCols()).copyFrom(out);
     }
 
     /**
@@ -174,19 +294,26 @@ public class NeuralNetwork implements Serializable {
         int matrixSize = target.get(0).getRows();
         Matrix result = new Matrix(matrixSize, matrixSize);
 
-        Iterator it_in = in.iterator();
-        Iterator it_tg = target.iterator();
+        Iterator<Matrix> it_in = in.iterator();
+        Iterator<Matrix> it_tg = target.iterator();
+        Matrix batch = null;
 
-        while (it_in.hasNext()) {
-            Matrix inp = (Matrix) it_in.next();
-            Matrix tgs = (Matrix) it_tg.next();
+        //Samples are fed forward by batches of EVAL_BATCH
+        for (int remaining = in.size(); remaining > 0; remaining -= EVAL_BATCH) {
+            int count = Math.min(EVAL_BATCH, remaining);
+            if (batch == null || batch.getCols() != count) {
+                batch = new Matrix(in.get(0).getRows(), count);
+            }
+            Matrix guesses = feedForward(it_in, count, batch);
+            for (int j = 1; j <= count; j++) {
+                Matrix tgs = it_tg.next();
 
-            Matrix guess = makeGuess(inp);
-            int guessLabel = convertLabel(guess);
-            int targetLabel = convertLabel(tgs);
+                int guessLabel = convertLabel(guesses.column(j));
+                int targetLabel = convertLabel(tgs);
 
-            int count = (int) result.getValue(guessLabel + 1, targetLabel + 1) + 1;
-            result.setValue(guessLabel + 1, targetLabel + 1, count);
+                int n = (int) result.getValue(guessLabel + 1, targetLabel + 1) + 1;
+                result.setValue(guessLabel + 1, targetLabel + 1, n);
+            }
         }
         return result;
     }
@@ -221,24 +348,32 @@ public class NeuralNetwork implements Serializable {
     public double evalNet(List<Matrix> in, List<Matrix> target, CostFunction cost) {
         int batch_size = in.size();
         double costError = 0;
-        Iterator it_in = in.iterator();
-        Iterator it_tg = target.iterator();
-
-        while (it_in.hasNext()) {
-            Matrix inp = (Matrix) it_in.next();
-            Matrix targ = (Matrix) it_tg.next();
-            Matrix e = makeGuess(inp);
-
-            //Compute Cost Function
-            switch (cost) {
-                case QUADRATIC:
-                    costError += quadratic(e, targ);
-                    break;
-                case CROSS_ENTROPY:
-                    costError = +cross_entropy(e, targ);
-                    break;
-                default:
-                    break;
+        Iterator<Matrix> it_in = in.iterator();
+        Iterator<Matrix> it_tg = target.iterator();
+        Matrix batch = null;
+
+        //Samples are fed forward by batches of EVAL_BATCH
+        for (int remaining = batch_size; remaining > 0; remaining -= EVAL_BATCH) {
+            int count = Math.min(EVAL_BATCH, remaining);
+            if (batch == null || batch.getCols() != count) {
+                batch = new Matrix(in.get(0).getRows(), count);
+            }
+            Matrix guesses = feedForward(it_in, count, batch);
+            for (int j = 1; j <= count; j++) {
+                Matrix targ = it_tg.next();
+                Matrix e = guesses.column(j);
+
+                //Compute Cost Function
+                switch (cost) {
+                    case QUADRATIC:
+                        costError += quadratic(e, targ);
+                        break;
+                    case CROSS_ENTROPY:
+                        costError = +cross_entropy(e, targ);
+                        break;
+                    default:
+                        break;
+                }
             }
         }
         return Math.abs(costError / batch_size);
@@ -254,7 +389,9 @@ public class NeuralNetwork implements Serializable {
     private double convertError(Matrix m) {
         double error = 0;
         for (int i = 0; i < m.getRows(); i++) {
-            error += Math.abs(m.getValue(i + 1, 1));
+            for (int j = 0; j < m.getCols(); j++) {
+                error += Math.abs(m.getValue(i + 1, j + 1));
+            }
         }
         return error;
     }
@@ -319,20 +456,22 @@ public class NeuralNetwork implements Serializable {
     public double trainNetwork(Matrix[] in, Matrix[] targets, CostFunction cost) throws FileNotFoundException, IOException {
         int batch_size = in.length;
         double costError = 0;
-        Matrix error = new Matrix(in[0].getRows(), 1);
+        Matrix error;
         //Compute Output error based on cost function
         for (int i = 0; i < batch_size; i++) {
             switch (cost) {
                 case QUADRATIC:
-                    error = (makeGuess(in[i]).minus(targets[i]));
+                    error = borrowGuess(feedForward(in[i])).minusInPlace(targets[i]);
                     costError += convertError(error);
-                    error = error.times_hadamard(layer[layer.length - 1].getActivationDerivates());
+                    error.times_hadamardInPlace(layer[layer.length - 1].getActivationDerivates());
                     backPropagateError(error, in[i]);
+                    MatrixPool.release(error);
                     break;
                 case CROSS_ENTROPY:
-                    error = makeGuess(in[i]).minus(targets[i]);
+                    error = borrowGuess(feedForward(in[i])).minusInPlace(targets[i]);
                     costError += convertError(error);
                     backPropagateError(error, in[i]);
+                    MatrixPool.release(error);
                     break;
                 default:
                     break;
@@ -350,6 +489,46 @@ public class NeuralNetwork implements Serializable {
         return costError / batch_size;
     }
 
+    /**
+     * Trains the network on sparse inputs, e.g. one-hot or bag of words
+     * vectors. The first layer only reads and updates the weights of
+     * non-zero inputs. ONLINE adjusts the weights after each sample, BATCH
+     * and MINI_BATCH adjust them once on all the given samples.
+     *
+     * @param in sparse input column vectors
+     * @param targets
+     * @param cost
+     * @param learningMethod
+     * @return error
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public double trainNetwork(SparseMatrix[] in, Matrix[] targets, CostFunction cost, LearningMethod learningMethod) throws FileNotFoundException, IOException {
+        double costError = 0;
+        for (int i = 0; i < in.length; i++) {
+            Matrix error = outputError(borrowGuess(feedForward(in[i])), targets[i], cost);
+            costError += Math.abs(convertError(error));
+            propagateError(error);
+            MatrixPool.release(error);
+            layer[0].adjustDeltaWeights(in[i]);
+            adjustHiddenDeltaWeights(1);
+            if (learningMethod == LearningMethod.ONLINE) {
+                gradientDescent();
+            }
+        }
+        if (learningMethod != LearningMethod.ONLINE) {
+            gradientDescent();
+        }
+        //Save network to file
+        File file = new File(name + ".bin");
+        FileOutputStream fos = new FileOutputStream(file);
+        ObjectOutputStream oos = new ObjectOutputStream(fos);
+        oos.writeObject(this);
+        fos.flush();
+        fos.close();
+        return costError / in.length;
+    }
+
     /**
      * Train method. it can perform learning with 3 type of algorithm, ONLINE,
      * BATCH, MINI BATCH ONLINE will adjust weights on each training sample.
@@ -394,7 +573,9 @@ public class NeuralNetwork implements Serializable {
     }
 
     /**
-     * Creates a mini List of inputs and targets randomly from the inputs
+     * Creates a mini List of inputs and targets randomly from the inputs. The
+     * lists and the Random are kept for the next epochs. Package private for
+     * the tests, which train without saving the network
      *
      * @param in
      * @param targets
@@ -403,22 +584,26 @@ public class NeuralNetwork implements Serializable {
      * @return
      * @throws InterruptedException
      */
-    private double miniBatchTraining(List<Matrix> in, List<Matrix> targets, CostFunction cost, int miniBatch) throws InterruptedException {
+    double miniBatchTraining(List<Matrix> in, List<Matrix> targets, CostFunction cost, int miniBatch) throws InterruptedException {
         //Create mini Batch List array
         int miniBatchListSize = in.size() / miniBatch;
-        List<Matrix> mini_in_list = new ArrayList<>();
-        List<Matrix> mini_tg_list = new ArrayList<>();
-        Random random = new Random();
+        if (mini_random == null) {
+            mini_in = new ArrayList<>(miniBatch);
+            mini_tg = new ArrayList<>(miniBatch);
+            mini_random = new Random();
+        }
+        List<Matrix> mini_in_list = mini_in;
+        List<Matrix> mini_tg_list = mini_tg;
+        Random random = mini_random;
         double error = 0;
 
         int index = random.nextInt(in.size());
         //Generate List of mini batch size
         for (int i = 0; i < (miniBatchListSize); i++) {
             for (int j = 0; j < miniBatch; j++) {
-                Matrix m_in = new Matrix(in.get(index));
-                Matrix m_tg = new Matrix(targets.get(index));
-                mini_in_list.add(m_in);
-                mini_tg_list.add(m_tg);
+                //Samples are only read, no need to copy them
+                mini_in_list.add(in.get(index));
+                mini_tg_list.add(targets.get(index));
                 index = random.nextInt(in.size());
             }
             error = batchTraining(mini_in_list, mini_tg_list, cost);
@@ -430,7 +615,8 @@ public class NeuralNetwork implements Serializable {
     }
 
     /**
-     * This method implements the batch training algorithm
+     * This method implements the batch training algorithm. Package private
+     * for the tests, which train without saving the network
      *
      * @param in
      * @param targets
@@ -438,21 +624,50 @@ public class NeuralNetwork implements Serializable {
      * @return
      * @throws InterruptedException
      */
-    private double batchTraining(List<Matrix> in, List<Matrix> targets, CostFunction cost) throws InterruptedException {
+    double batchTraining(List<Matrix> in, List<Matrix> targets, CostFunction cost) throws InterruptedException {
         int data_size = in.size();
-        Matrix error = new Matrix(in.get(0).getRows(), 1);
-        Iterator it_in = in.iterator();
-        Iterator it_tg = targets.iterator();
+        Matrix error;
+        Iterator<Matrix> it_in = in.iterator();
+        Iterator<Matrix> it_tg = targets.iterator();
         double costError = 0;
 
-        //Compute Output error based on cost function
-        while (it_in.hasNext()) {
-            Matrix input = (Matrix) it_in.next();
-            Matrix target = (Matrix) it_tg.next();
+        //Samples are propagated by batches of TRAIN_BATCH columns, a few
+        //matrix multiplications per layer. Delta weights add up over all
+        //the batches
+        for (int remaining = data_size; remaining > 0; remaining -= TRAIN_BATCH) {
+            int count = Math.min(TRAIN_BATCH, remaining);
+            Matrix input;
+            Matrix target;
+            if (count == 1) {
+                input = it_in.next();
+                target = it_tg.next();
+            } else {
+                if (batch_in == null || batch_in.getCols() != count) {
+                    Matrix m_in = batch_in;
+                    Matrix m_tg = batch_tg;
+                    if (spare_in != null && spare_in.getCols() == count) {
+                        batch_in = spare_in;
+                        batch_tg = spare_tg;
+                    } else {
+                        batch_in = new Matrix(layer[0].getNumInputs(), count);
+                        batch_tg = new Matrix(layer[layer.length - 1].getNumOutputs(), count);
+                    }
+                    spare_in = m_in;
+                    spare_tg = m_tg;
+                }
+                for (int j = 1; j <= count; j++) {
+                    batch_in.setVector(it_in.next(), j);
+                    batch_tg.setVector(it_tg.next(), j);
+                }
+                input = batch_in;
+                target = batch_tg;
+            }
 
+            //Compute Output error based on cost function
             error = computeError(input, target, cost);
             costError += Math.abs(convertError(error));
             backPropagateError(error, input);
+            MatrixPool.release(error);
         }
 
         gradientDescent();
@@ -461,7 +676,8 @@ public class NeuralNetwork implements Serializable {
     }
 
     /**
-     * This method implements the Online training method
+     * This method implements the Online training method. Package private
+     * for the tests, which train without saving the network
      *
      * @param in
      * @param targets
@@ -471,9 +687,9 @@ public class NeuralNetwork implements Serializable {
      * @throws IOException
      * @throws InterruptedException
      */
-    private double onlineTraining(List<Matrix> in, List<Matrix> targets, CostFunction cost) throws FileNotFoundException, IOException, InterruptedException {
+    double onlineTraining(List<Matrix> in, List<Matrix> targets, CostFunction cost) throws FileNotFoundException, IOException, InterruptedException {
         int data_size = in.size();
-        Matrix error = new Matrix(in.get(0).getRows(), 1);
+        Matrix error;
         Iterator it_in = in.iterator();
         Iterator it_tg = targets.iterator();
         double costError = 0;
@@ -486,6 +702,7 @@ public class NeuralNetwork implements Serializable {
             error = computeError(input, target, cost);
             costError += Math.abs(convertError(error));
             backPropagateError(error, input);
+            MatrixPool.release(error);
             gradientDescent();
         }
 
@@ -500,17 +717,20 @@ public class NeuralNetwork implements Serializable {
      * @param cost
      * @return
      */
-    //Compute error base on cost function
+    //Compute error base on cost function, the error is borrowed from the pool
     private Matrix computeError(Matrix input, Matrix target, CostFunction cost) {
-        Matrix error = new Matrix(input.getRows(), 1);
+        return outputError(borrowGuess(feedForward(input)), target, cost);
+    }
+
+    //Output layer error of guess, guess is overwritten
+    private Matrix outputError(Matrix guess, Matrix target, CostFunction cost) {
+        Matrix error = guess.minusInPlace(target);
 
         switch (cost) {
             case QUADRATIC:
-                error = (makeGuess(input).minus(target));
-                error = error.times_hadamard(layer[layer.length - 1].getActivationDerivates());
+                error.times_hadamardInPlace(derivates(layer[layer.length - 1], error.getCols()));
                 break;
             case CROSS_ENTROPY:
-                error = (makeGuess(input).minus(target));
                 //      error=error.times_hadamard(layer[layer.length-1].getActivationDerivates());
                 break;
             default:
@@ -557,21 +777,41 @@ public class NeuralNetwork implements Serializable {
      * @param in
      */
     private void backPropagateError(Matrix error, Matrix in) {
+        propagateError(error);
+        //Compute delta weights
+        layer[0].adjustDeltaWeights(in);
+        adjustHiddenDeltaWeights(in.getCols());
+    }
+
+    //Set the errors of all layers from the output layer error, of one
+    //sample or of a batch with a column per sample
+    private void propagateError(Matrix error) {
+        int samples = error.getCols();
         //Actualize output layer errors
         layer[layer.length - 1].setErrors(error);
-        //Back Propagate errors and compute delta weights
+        //Back Propagate errors
         for (int i = layer.length - 1; i > 0; i--) {
-            layer[i - 1].setErrors(layer[i].getErrorGradient().times_hadamard(layer[i - 1].getActivationDerivates()));
+            Matrix d = derivates(layer[i - 1], samples);
+            Matrix gradient = layer[i].getErrorGradient(MatrixPool.borrow(d.getRows(), samples));
+            layer[i - 1].setErrors(gradient.times_hadamardInPlace(d));
+            MatrixPool.release(gradient);
         }
+    }
 
-        //Compute delta weights
-        layer[0].adjustDeltaWeights(in);
+    //Compute delta weights of the layers after the first one, for one
+    //sample or a batch
+    private void adjustHiddenDeltaWeights(int samples) {
         for (int i = 1; i < layer.length; i++) {
-            layer[i].adjustDeltaWeights(layer[i - 1].getActivationOutputs());
+            layer[i].adjustDeltaWeights(samples == 1 ? layer[i - 1].getActivationOutputs() : layer[i - 1].getBatchOutputs());
         }
 
     }
 
+    //Activation derivatives of a layer for the last sample or batch fed forward
+    private static Matrix derivates(NN_Layer l, int samples) {
+        return samples == 1 ? l.getActivationDerivates() : l.getBatchDerivates();
+    }
+
     /**
      * Back propagate error in the layer
      */
@@ -646,6 +886,52 @@ public class NeuralNetwork implements Serializable {
         }
     }
 
+    /**
+     * Sets the precision of the weight matrices across all layers. Existing
+     * weights are converted.
+     *
+     * @param precision DOUBLE or FLOAT
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+        for (int i = 0; i < index; i++) {
+            layer[i].setPrecision(precision);
+        }
+    }
+
+    /**
+     * Turns the fast math mode on or off for all the layers, including the
+     * ones built later. Activations are then computed with the
+     * approximations of FastMath, see there for the maximum errors.
+     *
+     * @param fast
+     */
+    public void setFastMath(boolean fast) {
+        this.fastMath = fast;
+        for (int i = 0; i < index; i++) {
+            layer[i].setFastMath(fast);
+        }
+    }
+
+    /**
+     * Returns true if the fast math mode was set for the network
+     *
+     * @return
+     */
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
+    /**
+     * Returns the precision of the weight matrices
+     *
+     * @return
+     */
+    public Precision getPrecision() {
+        //Networks saved before precision was added are double
+        return precision == null ? Precision.DOUBLE : precision;
+    }
+
     /**
      * Returns Network name
      *
@@ -2,6 +2,8 @@
 package data_processing;
 
 import Matrix.Matrix;
+import Matrix.MatrixArena;
+import Matrix.SparseMatrix;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -12,6 +14,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -575,6 +578,66 @@ public class DataProcessing {
         return list;
     }
 
+    /**
+     * Same as loadData but the vectors are stored off-heap in arena. They
+     * stay valid until the arena is closed.
+     *
+     * @param filename
+     * @param startCol
+     * @param endCol
+     * @param arena
+     * @return
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public static List<Matrix> loadData(File filename, int startCol, int endCol, MatrixArena arena) throws FileNotFoundException, IOException {
+
+        List<Matrix> list = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String data;
+            while ((data = br.readLine()) != null) {
+                list.add(arena.copyOf(createMatrix(data, startCol, endCol)));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Loads the columns startCol..endCol of every line as a sparse vector,
+     * only the non-zero values are kept. Meant for one-hot or bag of words
+     * inputs.
+     *
+     * @param filename
+     * @param startCol
+     * @param endCol
+     * @return
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public static List<SparseMatrix> loadSparseData(File filename, int startCol, int endCol) throws FileNotFoundException, IOException {
+
+        List<SparseMatrix> list = new ArrayList<>();
+        int size = endCol - startCol + 1;
+        int[] rows = new int[size];
+        double[] values = new double[size];
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String data;
+            while ((data = br.readLine()) != null) {
+                String[] items = data.split(",");
+                int nnz = 0;
+                for (int i = 0; i < size; i++) {
+                    double val = Double.parseDouble(items[(startCol - 1) + i]);
+                    if (val != 0) {
+                        rows[nnz] = i;
+                        values[nnz++] = val;
+                    }
+                }
+                list.add(SparseMatrix.vector(size, Arrays.copyOf(rows, nnz), Arrays.copyOf(values, nnz)));
+            }
+        }
+        return list;
+    }
+
     public static List<Matrix> loadDataInputs(File filename) throws FileNotFoundException, IOException, ClassNotFoundException{
     
         //Get first line and extract input and target range
@@ -0,0 +1,133 @@
+package NeuralNetwork;
+
+import Matrix.Matrix;
+import NeuralNetwork.EnumValues.ActivationFunction;
+import NeuralNetwork.EnumValues.CostFunction;
+import NeuralNetwork.EnumValues.GradientDescent;
+import NeuralNetwork.EnumValues.InitializeMethod;
+import NeuralNetwork.EnumValues.LearningMethod;
+import NeuralNetwork.EnumValues.Precision;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Steady state training epochs must not allocate. After a warm-up, the
+ * bytes allocated by the training thread during one epoch are compared
+ * with a small constant: the iterators over the samples and similar
+ * objects, far less than one matrix per sample or per batch.
+ *
+ * @author Federico
+ */
+public class TrainingAllocationTest {
+
+    private static final int SAMPLES = 300;      // 128 + 128 + 44 in batch training
+    private static final int MINI_BATCH = 100;   // 3 mini batches per epoch
+    private static final int WARMUP = 300;       // epochs before measuring
+    private static final long MAX_BYTES = 512;   // a per sample allocation is at least 16 * SAMPLES
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public static void setUpClass() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testOnlineTrainingDoesNotAllocate() throws Exception {
+        assertEpochAllocations(LearningMethod.ONLINE);
+    }
+
+    @Test
+    public void testBatchTrainingDoesNotAllocate() throws Exception {
+        assertEpochAllocations(LearningMethod.BATCH);
+    }
+
+    @Test
+    public void testMiniBatchTrainingDoesNotAllocate() throws Exception {
+        assertEpochAllocations(LearningMethod.MINI_BATCH);
+    }
+
+    @Test
+    public void testLayerAccessorsIntoBuffersDoNotAllocate() {
+        for (Precision precision : Precision.values()) {
+            NN_Layer layer = new NN_Layer(12, 10, ActivationFunction.TANH, InitializeMethod.XAVIER, 0.05, 0, GradientDescent.SGD, 0, 7);
+            layer.setPrecision(precision);
+            layer.setErrors(Matrix.random(10, 1, 3));
+            Matrix errors = new Matrix(10, 1);
+            Matrix weights = new Matrix(10, 12);
+            for (int i = 0; i < WARMUP; i++) {
+                layer.getErrors(errors);
+                layer.getWeights(weights);
+            }
+            long tid = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < SAMPLES; i++) {
+                layer.getErrors(errors);
+                layer.getWeights(weights);
+            }
+            long allocated = threads.getThreadAllocatedBytes(tid) - before;
+
+            assertTrue(precision + " getErrors/getWeights into buffers allocated " + allocated + " bytes",
+                    allocated <= MAX_BYTES);
+            assertTrue(errors.eq(layer.getErrors()) && weights.eq(layer.getWeights()));
+        }
+    }
+
+    private static void assertEpochAllocations(LearningMethod method) throws Exception {
+        for (Precision precision : Precision.values()) {
+            for (ActivationFunction out : new ActivationFunction[]{ActivationFunction.SIGMOID, ActivationFunction.SOFTMAX}) {
+                assertEpochAllocations(precision, out, method);
+            }
+        }
+    }
+
+    private static void assertEpochAllocations(Precision precision, ActivationFunction out, LearningMethod method) throws Exception {
+        NeuralNetwork net = new NeuralNetwork("allocation", 12, 3, 0.05, 0, precision);
+        net.setSeed(7);
+        net.layerBuilder(12, 10, ActivationFunction.TANH, InitializeMethod.XAVIER, GradientDescent.NESTEROV, 0.5);
+        net.layerBuilder(10, 8, ActivationFunction.RELU, InitializeMethod.HE, GradientDescent.SGD, 0);
+        net.layerBuilder(8, 4, out, InitializeMethod.XAVIER, GradientDescent.SGD, 0);
+
+        List<Matrix> in = new ArrayList<>();
+        List<Matrix> targets = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            in.add(Matrix.random(12, 1, i));
+            Matrix t = new Matrix(4, 1);
+            t.setValue(1 + i % 4, 1, 1);
+            targets.add(t);
+        }
+
+        for (int i = 0; i < WARMUP; i++) {
+            epoch(net, in, targets, method);
+        }
+        long tid = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(tid);
+        epoch(net, in, targets, method);
+        long allocated = threads.getThreadAllocatedBytes(tid) - before;
+
+        assertTrue(method + " training, " + precision + ", " + out
+                + " output allocated " + allocated + " bytes in one epoch", allocated <= MAX_BYTES);
+    }
+
+    private static void epoch(NeuralNetwork net, List<Matrix> in, List<Matrix> targets, LearningMethod method) throws Exception {
+        switch (method) {
+            case ONLINE:
+                net.onlineTraining(in, targets, CostFunction.CROSS_ENTROPY);
+                break;
+            case BATCH:
+                net.batchTraining(in, targets, CostFunction.CROSS_ENTROPY);
+                break;
+            default:
+                net.miniBatchTraining(in, targets, CostFunction.CROSS_ENTROPY, MINI_BATCH);
+                break;
+        }
+    }
+}